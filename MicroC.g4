@@ -4,6 +4,7 @@ grammar MicroC;
 
 package compiler;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.LinkedList;
 import ast.*;
@@ -12,11 +13,13 @@ import compiler.Scope.*;
 }
 
 @members {
+     private CompilationContext ctx; //Compilation this parser is working for
      private SymbolTable st; //Symbol table for the program
      private ASTNode ast; //AST for the program
 
-     public void setSymbolTable(SymbolTable st) {
-          this.st = st;
+     public void setContext(CompilationContext ctx) {
+          this.ctx = ctx;
+          this.st = ctx.getSymbolTable();
      }
 
      public SymbolTable getSymbolTable() {
@@ -38,37 +41,37 @@ import compiler.Scope.*;
 program : decls functions {ast = $functions.node;};
 
 /* Declarations */
-decls : var_decl decls
-      | str_decl decls
-      | func_decl decls
-	 | /* empty */ ;
+decls : (var_decl | str_decl | func_decl)* ;
 
-var_decls : var_decl var_decls 
-          | /* emoty */ ;
+var_decls : var_decl* ;
 
 /* Identifiers and types */		  
 id : IDENTIFIER ;
 		  
 var_decl : type id ';' {st.addVariable($type.t, $id.text);};
 
-str_decl : 'string' id '=' val= STR_LITERAL ';' {st.addVariable(new Scope.Type(Scope.InnerType.STRING), $id.text, $val.text);};
+str_decl : 'string' id '=' val= STR_LITERAL ';' {st.addVariable(Scope.Type.of(Scope.InnerType.STRING), $id.text, $val.text);};
 
 type returns [Scope.Type t] : base_type {$t = $base_type.t;}
           | t1=type '*' {$t = Scope.Type.pointerToType($t1.t);};
 
-base_type returns [Scope.Type t]: 'int' {$t = new Scope.Type(Scope.InnerType.INT);}
-          | 'float' {$t = new Scope.Type(Scope.InnerType.FLOAT);}
-          | 'void' {$t = new Scope.Type(Scope.InnerType.VOID);}; // STEP 7 edit, option 1
+base_type returns [Scope.Type t]: 'int' {$t = Scope.Type.of(Scope.InnerType.INT);}
+          | 'float' {$t = Scope.Type.of(Scope.InnerType.FLOAT);}
+          | 'void' {$t = Scope.Type.of(Scope.InnerType.VOID);}; // STEP 7 edit, option 1
 
 func_type returns [Scope.Type t]: type {$t = $type.t;}
-          | 'void' {$t = new Scope.Type(Scope.InnerType.VOID);};
+          | 'void' {$t = Scope.Type.of(Scope.InnerType.VOID);};
 
 /* Functions */
 
 func_decl : func_type id '(' params ')' ';' {st.addFunction($func_type.t, $id.text, $params.types);};
 
-functions returns [FunctionListNode node] : function functions {$node = new FunctionListNode($function.node, $functions.node);}
-            | /* empty */ {$node = new FunctionListNode();};
+/* List rules are loops rather than right recursion: each element is appended to
+   one list as it is parsed, so a long list neither copies its tail at every
+   level nor nests a rule invocation per element */
+functions returns [FunctionListNode node]
+     @init {List<FunctionNode> functions = new ArrayList<FunctionNode>();}
+     : (function {functions.add($function.node);})* {$node = new FunctionListNode(functions);};
 
 function returns [FunctionNode node] : func_type id '(' params ')' 
       {
@@ -94,30 +97,18 @@ function returns [FunctionNode node] : func_type id '(' params ')'
           st.popScope();
      };
 		 		 
-params returns [LinkedList<String> names, LinkedList<Scope.Type> types]: param params_rest 
-          {
-               $names = new LinkedList<String>();
-               $types = new LinkedList<Scope.Type>();
-               $names.add($param.name); $names.addAll($params_rest.names);
-               $types.add($param.param_type); $types.addAll($params_rest.types);
-          }
-       | /* empty */ {$names = new LinkedList<String>(); $types = new LinkedList<Scope.Type>();};
-		   
-params_rest returns [LinkedList<String> names, LinkedList<Scope.Type> types] : ',' param params_rest
-          {
-               $names = new LinkedList<String>();
-               $types = new LinkedList<Scope.Type>();
-               $names.add($param.name); $names.addAll($params_rest.names);
-               $types.add($param.param_type); $types.addAll($params_rest.types);
-          }
-            | /* empty */ {$names = new LinkedList<String>(); $types = new LinkedList<Scope.Type>();};
+params returns [LinkedList<String> names, LinkedList<Scope.Type> types]
+     @init {$names = new LinkedList<String>(); $types = new LinkedList<Scope.Type>();}
+     : (p=param {$names.add($p.name); $types.add($p.param_type);}
+          (',' p=param {$names.add($p.name); $types.add($p.param_type);})*)? ;
 			
 param returns [String name, Scope.Type param_type] : type id {$name = $id.text; $param_type = $type.t;};                   
 
 /* Statements */
 		 
-statements returns [StatementListNode node] : statement s=statements {$node = new StatementListNode($statement.node, $s.node);}
-            | /* empty */ {$node = new StatementListNode();};
+statements returns [StatementListNode node]
+     @init {List<StatementNode> statements = new ArrayList<StatementNode>();}
+     : (statement {statements.add($statement.node);})* {$node = new StatementListNode(statements);};
 			
 statement returns [StatementNode node] : base_stmt ';' {$node = $base_stmt.node;}
 		  | if_stmt {$node = $if_stmt.node;}
@@ -129,7 +120,7 @@ base_stmt returns [StatementNode node] : assign_stmt {$node = $assign_stmt.node;
 		| return_stmt {$node = $return_stmt.node;}
           | call_expr {$node = $call_expr.node;};
 		 
-read_stmt returns [ReadNode node] : 'read' '(' id ')' {$node = new ReadNode(new VarNode($id.text));} ;
+read_stmt returns [ReadNode node] : 'read' '(' id ')' {$node = new ReadNode(new VarNode($id.text, ctx));} ;
 
 print_stmt returns [WriteNode node] : 'print' '(' expr ')' {$node = new WriteNode($expr.node);};
 
@@ -138,8 +129,7 @@ return_stmt returns [ReturnNode node] : 'return' expr {$node = new ReturnNode($e
 
 assign_stmt returns [AssignNode node] : lhs '=' expr {$node = new AssignNode($lhs.node, $expr.node);};
 
-lhs returns [ExpressionNode node] : lval {$node = $lval.node;}
-                                  | array_expr {$node = $array_expr.node;};
+lhs returns [ExpressionNode node] : array_expr {$node = $array_expr.node;};
 
 /* if_stmt rules go here */
 if_stmt returns [IfStatementNode node] : 'if' '(' cond ')' '{' tlist=statements '}'  {$node = new IfStatementNode($cond.node, $tlist.node, null);}
@@ -152,16 +142,15 @@ while_stmt returns [WhileNode node] : 'while' '(' cond ')' '{' statements '}' {$
 
 cast_expr returns [CastExprNode node] : '(' type ')' expr {$node = new CastExprNode($expr.node, $type.t);};   // STEP 7 edit
 
-lval returns [ExpressionNode node] : id {$node = new VarNode($id.text);}
+lval returns [ExpressionNode node] : id {$node = new VarNode($id.text, ctx);}
         | ptr_expr {$node = $ptr_expr.node;};
 
-primary returns [ExpressionNode node] : lval {$node = $lval.node;}
+primary returns [ExpressionNode node] : array_expr {$node = $array_expr.node;}
         | cast_expr {$node = $cast_expr.node;}    // STEP 7 edit
         | addr_of_expr {$node = $addr_of_expr.node;}
         | '(' expr ')' {$node = $expr.node;}
         | unaryminus_expr {$node = $unaryminus_expr.node;}
         | call_expr {$node = $call_expr.node;}
-        | array_expr {$node = $array_expr.node;}
         | il = INT_LITERAL {$node = new IntLitNode($il.text);}
         | fl = FLOAT_LITERAL {$node = new FloatLitNode($fl.text);};
 
@@ -169,22 +158,22 @@ unaryminus_expr returns [ExpressionNode node] : '-' expr {$node = new UnaryOpNod
 
 ptr_expr returns [PtrDerefNode node] : '*' primary {$node = new PtrDerefNode($primary.node);}; /* FILL IN FOR STEP 6 */
 
-addr_of_expr returns [AddrOfNode node] : '&' lval {$node = new AddrOfNode($lval.node);} /* FILL IN FOR STEP 6 */
-          | '&' array_expr {$node = new AddrOfNode($array_expr.node);}; /* FILL IN FOR STEP 6 */
+addr_of_expr returns [AddrOfNode node] : '&' array_expr {$node = new AddrOfNode($array_expr.node);}; /* FILL IN FOR STEP 6 */
 
-array_expr returns [PtrDerefNode node] : lval '[' expr ']' {$node = new PtrDerefNode(new BinaryOpNode($lval.node, new BinaryOpNode($expr.node, new IntLitNode("4"), "*"), "+"));} /* FILL IN FOR STEP 6 */
-        | ae=array_expr '[' expr ']'{$node = new PtrDerefNode(new BinaryOpNode($ae.node, new BinaryOpNode($expr.node, new IntLitNode("4"), "*"), "+"));}; /* FILL IN FOR STEP 6 */
+/* An lval with any number of subscripts, plain lvals included. Written as a loop
+   rather than as a separate alternative next to lval so that choosing between the
+   two never depends on the enclosing rule, which SLL prediction cannot see */
+array_expr returns [ExpressionNode node] : lval {$node = $lval.node;}
+        ('[' e=expr ']' {$node = new PtrDerefNode(new BinaryOpNode($node, new BinaryOpNode($e.node, new IntLitNode("4"), "*"), "+"));})*; /* FILL IN FOR STEP 6 */
 		 
 /* Call expressions */
 call_expr returns [AbstractCallNode node] : 'malloc' '(' expr ')' {$node = new MallocNode($expr.node);}
      | 'free' '(' expr ')' {$node = new FreeNode($expr.node);}
-     | id '(' arg_list ')' {$node = new CallNode($id.text, $arg_list.args);};
+     | id '(' arg_list ')' {$node = new CallNode($id.text, $arg_list.args, ctx);};
 
-arg_list returns [List<ExpressionNode> args] : expr args_rest {$args = new LinkedList<ExpressionNode>(); $args.add($expr.node); $args.addAll($args_rest.args);}
-         | /* empty */ {$args = new LinkedList<ExpressionNode>();};
-		 
-args_rest returns [List<ExpressionNode> args] : ',' expr args_rest {$args = new LinkedList<ExpressionNode>(); $args.add($expr.node); $args.addAll($args_rest.args);}
-          | /* empty */ {$args = new LinkedList<ExpressionNode>();};
+arg_list returns [List<ExpressionNode> args]
+     @init {$args = new LinkedList<ExpressionNode>();}
+     : (e=expr {$args.add($e.node);} (',' e=expr {$args.add($e.node);})*)? ;
 
 /* This is left recursive, but ANTLR will clean this up */ 
 expr returns [ExpressionNode node] : term {$node = $term.node;}
@@ -0,0 +1,118 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import assembly.CodeGenerator;
+import assembly.CodeObject;
+import ast.ASTNode;
+import ast.CompactFunction;
+import ast.FunctionListNode;
+import ast.FunctionNode;
+import ast.visitor.PrintVisitor;
+import compiler.CompilationContext;
+import compiler.MicroCLexer;
+import compiler.MicroCParser;
+import compiler.Options;
+
+/**
+ * Code generation and rendering on a prebuilt AST.
+ *
+ * The <code>Recursive</code> variants walk the AST with <code>accept</code>
+ * instead of the explicit-stack walk <code>run</code> does, for comparison.
+ * <code>codeGeneratorCompact</code> generates code from the compact AST, as
+ * --compact-ast does, inflating each function just before its code is
+ * generated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeGenBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int functions;
+
+	private ASTNode ast;
+	private ASTNode compactAst;
+	private CodeObject code;
+	private PrintStream nullOut = new PrintStream(OutputStream.nullOutputStream());
+	private PrintStream stdout;
+
+	@Setup
+	public void setup() {
+		MicroCParser parser = new MicroCParser(new CommonTokenStream(
+				new MicroCLexer(CharStreams.fromString(Programs.generate(functions)))));
+		parser.setContext(new CompilationContext(nullOut, new Options()));
+		parser.program();
+		ast = parser.getAST();
+		code = new CodeGenerator(nullOut).run(ast);
+		List<CompactFunction> compact = new ArrayList<CompactFunction>();
+		for (FunctionNode f : ((FunctionListNode) ast).getFunctions()) {
+			compact.add(CompactFunction.of(f));
+		}
+		compactAst = new FunctionListNode(CompactFunction.inflating(compact));
+		stdout = System.out;
+		System.setOut(nullOut); //PrintVisitor prints to System.out
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	public CodeObject codeGenerator() {
+		return new CodeGenerator(nullOut).run(ast);
+	}
+
+	@Benchmark
+	public CodeObject codeGeneratorRecursive() {
+		return ast.accept(new CodeGenerator(nullOut));
+	}
+
+	@Benchmark
+	public CodeObject codeGeneratorCompact() {
+		return new CodeGenerator(nullOut).run(compactAst);
+	}
+
+	@Benchmark
+	public Void printVisitor() {
+		return new PrintVisitor().run(ast);
+	}
+
+	@Benchmark
+	public Void printVisitorRecursive() {
+		return ast.accept(new PrintVisitor());
+	}
+
+	/**
+	 * Rendering the whole program to text, as the default output path does
+	 * with <code>CodeObject.toString()</code> and <code>InstructionList.toString()</code>.
+	 */
+	@Benchmark
+	public String render() {
+		return code.toString();
+	}
+
+}
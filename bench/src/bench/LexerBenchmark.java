@@ -0,0 +1,64 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import compiler.HandLexer;
+import compiler.MicroCLexer;
+
+/**
+ * Tokenizing a whole program with the generated ANTLR lexer and with the
+ * hand-written {@link HandLexer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int functions;
+
+	private String source;
+
+	@Setup
+	public void setup() {
+		source = Programs.generate(functions);
+	}
+
+	@Benchmark
+	public int antlrLexer() {
+		MicroCLexer lexer = new MicroCLexer(CharStreams.fromString(source));
+		int n = 0;
+		while (lexer.nextToken().getType() != Token.EOF) {
+			n++;
+		}
+		return n;
+	}
+
+	@Benchmark
+	public int handLexer() {
+		HandLexer lexer = HandLexer.of(CharStreams.fromString(source));
+		int n = 0;
+		while (lexer.nextToken().getType() != Token.EOF) {
+			n++;
+		}
+		return n;
+	}
+
+}
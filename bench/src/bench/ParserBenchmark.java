@@ -0,0 +1,84 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ast.ASTNode;
+import compiler.CompilationContext;
+import compiler.Compiler;
+import compiler.HandLexer;
+import compiler.MicroCLexer;
+import compiler.Options;
+import compiler.RecursiveDescentParser;
+
+/**
+ * Parsing a pre-lexed program with <code>Compiler.parse</code>, including
+ * the symbol table and AST construction done by the grammar's actions.
+ * <code>twoStage</code> tries SLL prediction first, as the compiler does by
+ * default; <code>fullLL</code> is the same parse with --full-ll.
+ * <code>recursiveDescent</code> is the --rd-parser front end, which lexes as
+ * it parses, so its time includes lexing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int functions;
+
+	private String source;
+	private List<? extends Token> tokens;
+	private PrintStream nullOut = new PrintStream(OutputStream.nullOutputStream());
+
+	@Setup
+	public void setup() {
+		source = Programs.generate(functions);
+		MicroCLexer lexer = new MicroCLexer(CharStreams.fromString(source));
+		tokens = lexer.getAllTokens();
+	}
+
+	@Benchmark
+	public ASTNode twoStage() {
+		return parse(false);
+	}
+
+	@Benchmark
+	public ASTNode fullLL() {
+		return parse(true);
+	}
+
+	@Benchmark
+	public ASTNode recursiveDescent() {
+		HandLexer lexer = HandLexer.of(CharStreams.fromString(source));
+		return new RecursiveDescentParser(lexer, new CompilationContext(nullOut, new Options())).program();
+	}
+
+	private ASTNode parse(boolean fullLL) {
+		Options options = new Options();
+		options.fullLL = fullLL;
+		return Compiler.parse(new CommonTokenStream(new ListTokenSource(tokens)), new CompilationContext(nullOut, options));
+	}
+
+}
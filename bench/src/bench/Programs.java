@@ -0,0 +1,21 @@
+package bench;
+
+import compiler.ProgramGenerator;
+
+/**
+ * Builds uC source text of a given size for the benchmarks.
+ */
+public class Programs {
+
+	/**
+	 * A program with <code>functions</code> functions of 50 statements each,
+	 * from {@link ProgramGenerator} with its default knobs and seed, so every
+	 * run measures the same input.
+	 */
+	public static String generate(int functions) {
+		ProgramGenerator g = new ProgramGenerator();
+		g.functions = functions;
+		return g.generate();
+	}
+
+}
@@ -0,0 +1,111 @@
+package assembly;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import assembly.instructions.Blank;
+import assembly.instructions.Instruction;
+import ast.FunctionListNode;
+import ast.FunctionNode;
+import compiler.CompileStats;
+
+/**
+ * Streams assembly to a file one function at a time.
+ *
+ * The default path builds one {@link CodeObject} for the whole program and
+ * renders it to a single string before printing, so the instruction list and
+ * its text are both fully resident. Here each function is generated, written
+ * through a buffered {@link FileChannel} and dropped before the next one is
+ * generated. Memory for code then stays bounded by the largest function.
+ *
+ * The text is the same as the default path, except that diagnostic comments
+ * emitted during code generation appear just before the function they belong
+ * to rather than before <code>.section .text</code>.
+ */
+public class AsmEmitter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private FileChannel channel;
+	private PrintStream out;
+
+	public AsmEmitter(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		out = new PrintStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), false);
+	}
+
+	/**
+	 * @return the stream everything is written to, for the symbol table dump and strings section
+	 */
+	public PrintStream getOut() {
+		return out;
+	}
+
+	/**
+	 * Generate and write the text section of a program, function by function.
+	 */
+	public void emitProgram(FunctionListNode program, CodeGenerator cg, CompileStats stats) {
+		beginText(cg, stats);
+		for (FunctionNode f : program.getFunctions()) {
+			emitFunction(f, cg, stats);
+		}
+		endText();
+	}
+
+	/**
+	 * Write the start of the text section: the code that calls main.
+	 */
+	public void beginText(CodeGenerator cg, CompileStats stats) {
+		stats.begin("emit");
+		out.println(".section .text");
+		out.println(";Current temp: null");
+		out.println(";IR Code: ");
+
+		emit(cg.generateStartup());
+	}
+
+	/**
+	 * Generate and write the code of one function. The same code generator
+	 * must be used for every function of a program, so labels stay unique.
+	 */
+	public void emitFunction(FunctionNode f, CodeGenerator cg, CompileStats stats) {
+		stats.begin("codegen");
+		CodeObject co = cg.run(f);
+		stats.begin("emit");
+		emit(co.getCode());
+		emit(new Blank());
+	}
+
+	/**
+	 * Write the end of the text section, after the last function.
+	 */
+	public void endText() {
+		//matches the trailing newline println adds after a whole-program CodeObject
+		out.println();
+	}
+
+	public void emit(Iterable<Instruction> code) {
+		for (Instruction i : code) {
+			emit(i);
+		}
+	}
+
+	public void emit(Instruction i) {
+		out.append(i.toString()).append('\n');
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.flush();
+		out.close();
+		channel.close();
+	}
+
+}
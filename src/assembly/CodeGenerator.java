@@ -1,6 +1,9 @@
 package assembly;
 
+import java.io.PrintStream;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import compiler.Scope.InnerType;
 import compiler.Scope.SymbolTableEntry;
@@ -22,15 +25,42 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	int outLabel;
 
 	String currFunc;
+	Set<String> tailCallees = new LinkedHashSet<String>(); //functions currFunc makes tail calls to
+
+	boolean hoistInvariants;
+	LoopInvariants invariants; //for currFunc, null unless hoisting
+
+	PrintStream out; //where diagnostic comments are written
 	
 	public CodeGenerator() {
-		loopLabel = 0;
-		elseLabel = 0;
-		outLabel = 0;
+		this(System.out);
+	}
+
+	public CodeGenerator(PrintStream out) {
+		this(out, 0, 0, 0);
+	}
+
+	/**
+	 * Start label numbering after the given values, so functions generated by
+	 * separate code generators still get program-wide unique labels.
+	 */
+	CodeGenerator(PrintStream out, int loopLabel, int elseLabel, int outLabel) {
+		this.out = out;
+		this.loopLabel = loopLabel;
+		this.elseLabel = elseLabel;
+		this.outLabel = outLabel;
 		intRegCount = 0;		
 		floatRegCount = 0;
 	}
 
+	/**
+	 * Whether to move loop-invariant code out of while loops (see
+	 * {@link LoopInvariants}). Off by default.
+	 */
+	public void setHoistInvariants(boolean hoistInvariants) {
+		this.hoistInvariants = hoistInvariants;
+	}
+
 	public int getIntRegCount() {
 		return intRegCount;
 	}
@@ -149,12 +179,12 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 			implicitConvert = new Imovfs(left.temp, generateTemp(Scope.InnerType.FLOAT));
 			co.code.add(implicitConvert);
 			left.temp = co.code.getLast().getDest();
-			left.type = new Scope.Type(Scope.InnerType.FLOAT);
+			left.type = Scope.Type.of(Scope.InnerType.FLOAT);
 		}else if (left.getType().type == Scope.InnerType.FLOAT && right.getType().type == Scope.InnerType.INT){
 			implicitConvert = new Imovfs(right.temp, generateTemp(Scope.InnerType.FLOAT));
 			co.code.add(implicitConvert);
 			right.temp = co.code.getLast().getDest();			
-			right.type = new Scope.Type(Scope.InnerType.FLOAT);
+			right.type = Scope.Type.of(Scope.InnerType.FLOAT);
 		}
 		
 		// Step 3
@@ -434,7 +464,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 			//Step 1:
 			assert(expr.getSTE() != null);
 			
-			System.out.println("; generating code to print " + expr.getSTE());
+			out.println("; generating code to print " + expr.getSTE());
 
 			//Get the address of the variable
 			InstructionList addrCo = generateAddrFromVariable(expr);
@@ -690,6 +720,9 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	 *		outLabel:
 	 *
 	 * Step 5 insert code into code object in appropriate order.
+	 * 
+	 * Step 6: if hoisting invariants, move the loop's invariant code to
+	 * 			before loopLabel
 	 */
 	@Override
 	protected CodeObject postprocess(WhileNode node, CodeObject cond, CodeObject slist) {
@@ -796,6 +829,14 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		co.code.add(branchTemp);		//<flipped branch> outLabel			
 		co.code.addAll(slist.code);		//<body code>
 		co.code.add(jump);				//j loopLabel
+
+		//Step 6: move what is the same every time round to before loopLabel
+		if (invariants != null) {
+			InstructionList code = new InstructionList();
+			code.addAll(invariants.hoist(co.code.nodes));
+			code.addAll(co.code);
+			co.code = code;
+		}
 		co.code.add(outputL);			//outLabel:
 
 		co.lval = false;
@@ -820,6 +861,13 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	@Override
 	protected CodeObject postprocess(ReturnNode node, CodeObject retExpr) {
 		CodeObject co = new CodeObject();
+
+		//a tail call leaves the function itself
+		if (node.getRetExpr() instanceof CallNode && ((CallNode) node.getRetExpr()).isTailCall()) {
+			co.code.addAll(retExpr.code);
+			co.type = retExpr.getType();
+			return co;
+		}
 		
 		if (retExpr != null) {
 			//Step 1 
@@ -853,6 +901,8 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		//reset register counts; each function uses new registers!
 		intRegCount = 0;
 		floatRegCount = 0;
+		tailCallees.clear();
+		invariants = hoistInvariants ? new LoopInvariants(TailCalls.addressesLocals(node)) : null;
 	}
 
 	/**
@@ -879,6 +929,10 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	 * 			c. Deallocate stack frame (set stack pointer to frame pointer)
 	 * 			d. Reset fp to old location
 	 * 			e. Return from function
+	 *
+	 * Step 7: for each function it makes tail calls to, the same as step 6
+	 *         under a label of its own, but jumping to the function instead
+	 *         of returning
 	 */
 	@Override
 	protected CodeObject postprocess(FunctionNode node, CodeObject body) {
@@ -914,23 +968,41 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		//Step 6
 		//a	 
 		co.code.add(new Label(generateFunctionOutLabel()));								
+		//b-d
+		co.code.addAll(generateFrameRelease());
+		//e
+		co.code.add(new Ret());
+
+		//Step 7
+		for (String callee : tailCallees) {
+			co.code.add(new Label(generateTailCallLabel(callee)));
+			co.code.addAll(generateFrameRelease());
+			co.code.add(new J(generateFunctionLabel(callee)));
+		}
+
+		return co;
+	}
+
+	/**
+	 * Steps 6b-d of a function: restore the registers it saved and pop its
+	 * frame
+	 */
+	private InstructionList generateFrameRelease() {
+		InstructionList il = new InstructionList();
 		//b
 		for (int f = getFloatRegCount(); f > 0; f--) {												
-			co.code.add(new Addi("sp", String.valueOf(4), "sp"));
-			co.code.add(new Flw("f".concat(String.valueOf(f)), "sp", "0")); 	
+			il.add(new Addi("sp", String.valueOf(4), "sp"));
+			il.add(new Flw("f".concat(String.valueOf(f)), "sp", "0")); 	
 		}
 		for (int i = getIntRegCount(); i > 0; i--) {
-			co.code.add(new Addi("sp", String.valueOf(4), "sp"));
-			co.code.add(new Lw("t".concat(String.valueOf(i)), "sp", "0"));											
+			il.add(new Addi("sp", String.valueOf(4), "sp"));
+			il.add(new Lw("t".concat(String.valueOf(i)), "sp", "0"));											
 		}		
 		//c 
-		co.code.add(new Mv("fp", "sp"));									
+		il.add(new Mv("fp", "sp"));									
 		//d
-		co.code.add(new Lw("fp", "fp", "0"));	
-		//e
-		co.code.add(new Ret());
-
-		return co;
+		il.add(new Lw("fp", "fp", "0"));	
+		return il;
 	}
 
 	/**
@@ -948,10 +1020,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	protected CodeObject postprocess(FunctionListNode node, List<CodeObject> funcs) {
 		CodeObject co = new CodeObject();
 
-		co.code.add(new Mv("sp", "fp"));
-		co.code.add(new Jr(generateFunctionLabel("main")));
-		co.code.add(new Halt());
-		co.code.add(new Blank());
+		co.code.addAll(generateStartup());
 
 		//add code for each of the functions
 		for (CodeObject c : funcs) {
@@ -962,6 +1031,18 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		return co;
 	}
 
+	/**
+	 * Steps 1-3 of the top level code: set up fp, call main, halt
+	 */
+	InstructionList generateStartup() {
+		InstructionList il = new InstructionList();
+		il.add(new Mv("sp", "fp"));
+		il.add(new Jr(generateFunctionLabel("main")));
+		il.add(new Halt());
+		il.add(new Blank());
+		return il;
+	}
+
 	/**
 	* 
 	* FILL IN FOR STEP 4
@@ -994,6 +1075,9 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	  */
 	@Override
 	protected CodeObject postprocess(CallNode node, List<CodeObject> args) {
+		if (node.isTailCall()) {
+			return generateTailCall(node, args);
+		}
 		
 		//STEP 0
 		CodeObject co = new CodeObject();
@@ -1057,6 +1141,55 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		return co;
 	}	
 	
+	/**
+	 * Generate code for a tail call, which reuses the caller's frame: the
+	 * callee's value is the caller's, and it takes no more arguments than
+	 * the caller (see {@link CallNode#isTailCall()})
+	 *
+	 * Step 1: insert code of each argument (rvalified)
+	 *
+	 * Step 2: store the arguments where the callee finds its parameters,
+	 *         over the caller's: the last at fp + 12, the others above it
+	 *
+	 * Step 3: jump to where the frame is released, which jumps on to the
+	 *         callee with ra and fp as the caller got them, so the callee
+	 *         returns its value straight to the caller's caller
+	 */
+	private CodeObject generateTailCall(CallNode node, List<CodeObject> args) {
+		CodeObject co = new CodeObject();
+
+		//Step 1
+		String[] temps = new String[args.size()];
+		Scope.Type[] types = new Scope.Type[args.size()];
+		int n = 0;
+		for (CodeObject c : args) {
+			if (c.lval == true) {
+				c = rvalify(c);
+			}
+			co.code.addAll(c.code);
+			temps[n] = c.temp;
+			types[n++] = c.getType();
+		}
+
+		//Step 2
+		for (int i = 0; i < n; i++) {
+			String offset = String.valueOf(12 + 4 * (n - 1 - i));
+			if (types[i].type == Scope.InnerType.FLOAT) {
+				co.code.add(new Fsw(temps[i], "fp", offset));
+			} else {
+				co.code.add(new Sw(temps[i], "fp", offset));
+			}
+		}
+
+		//Step 3
+		co.code.add(new J(generateTailCallLabel(node.getFuncName())));
+		tailCallees.add(node.getFuncName());
+
+		co.type = node.getType();
+		co.lval = false;
+		return co;
+	}
+
 	/**
 	 * Generate code for * (expr)
 	 * 
@@ -1170,7 +1303,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		co.code.add(mallocIns);
 
 		// Step 3
-		co.type = new Scope.Type(Scope.InnerType.INFER);
+		co.type = Scope.Type.of(Scope.InnerType.INFER);
 		co.lval = false;									
 		
 		return co;
@@ -1287,6 +1420,10 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	protected String generateFunctionOutLabel() {
 		return "func_ret_" + currFunc;
 	}
+
+	protected String generateTailCallLabel(String func) {
+		return "func_tail_" + currFunc + "_" + func;
+	}
 	
 	/**
 	 * Take a code object that results in an lval, and create a new code
@@ -0,0 +1,137 @@
+package assembly;
+
+import java.util.List;
+
+import ast.AddrOfNode;
+import ast.AssignNode;
+import ast.BinaryOpNode;
+import ast.CallNode;
+import ast.CastExprNode;
+import ast.CondNode;
+import ast.FloatLitNode;
+import ast.FreeNode;
+import ast.FunctionNode;
+import ast.IfStatementNode;
+import ast.IntLitNode;
+import ast.MallocNode;
+import ast.PtrDerefNode;
+import ast.ReadNode;
+import ast.ReturnNode;
+import ast.StatementListNode;
+import ast.UnaryOpNode;
+import ast.VarNode;
+import ast.WhileNode;
+import ast.WriteNode;
+import ast.visitor.AbstractASTVisitor;
+
+/**
+ * Renders a function as a canonical string holding everything its generated
+ * code depends on: the shape of its body, literals and operators, the
+ * resolved symbol table entry (type and address) of every variable, the
+ * signature of every function it calls or returns from, and the size of its
+ * frame. Two functions with the same fingerprint generate the same code, up
+ * to the numbering of their labels.
+ */
+class FunctionFingerprint extends AbstractASTVisitor<String> {
+
+	@Override
+	protected String postprocess(VarNode node) {
+		return "(var " + node.getSymbol() + ")";
+	}
+
+	@Override
+	protected String postprocess(IntLitNode node) {
+		return "(int " + node.getVal() + ")";
+	}
+
+	@Override
+	protected String postprocess(FloatLitNode node) {
+		return "(float " + node.getVal() + ")";
+	}
+
+	@Override
+	protected String postprocess(BinaryOpNode node, String left, String right) {
+		return "(" + node.getOp() + " " + node.getType() + " " + left + " " + right + ")";
+	}
+
+	@Override
+	protected String postprocess(CastExprNode node, String expr) {
+		return "(cast " + node.getCastType() + " " + expr + ")";
+	}
+
+	@Override
+	protected String postprocess(UnaryOpNode node, String expr) {
+		return "(" + node.getOp() + " " + node.getType() + " " + expr + ")";
+	}
+
+	@Override
+	protected String postprocess(AssignNode node, String left, String right) {
+		return "(assign " + node.getType() + " " + left + " " + right + ")";
+	}
+
+	@Override
+	protected String postprocess(StatementListNode node, List<String> statements) {
+		return "(list " + String.join(" ", statements) + ")";
+	}
+
+	@Override
+	protected String postprocess(ReadNode node, String var) {
+		return "(read " + node.getType() + " " + var + ")";
+	}
+
+	@Override
+	protected String postprocess(WriteNode node, String writeExpr) {
+		return "(write " + node.getWriteExpr().getType() + " " + writeExpr + ")";
+	}
+
+	@Override
+	protected String postprocess(CondNode node, String left, String right) {
+		return "(" + node.getOp() + " " + left + " " + right + ")";
+	}
+
+	@Override
+	protected String postprocess(IfStatementNode node, String cond, String tlist, String elist) {
+		return "(if " + cond + " " + tlist + " " + elist + ")";
+	}
+
+	@Override
+	protected String postprocess(WhileNode node, String cond, String slist) {
+		return "(while " + cond + " " + slist + ")";
+	}
+
+	@Override
+	protected String postprocess(ReturnNode node, String retExpr) {
+		return "(return " + node.getFuncSymbol() + " " + retExpr + ")";
+	}
+
+	@Override
+	protected String postprocess(FunctionNode node, String body) {
+		return "(function " + node.getFuncName() + " " + node.getScope().getNumLocals() + " " + body + ")";
+	}
+
+	@Override
+	protected String postprocess(CallNode node, List<String> args) {
+		return (node.isTailCall() ? "(tailcall " : "(call ") + node.getFuncName() + " " + node.getType() + " " + String.join(" ", args) + ")";
+	}
+
+	@Override
+	protected String postprocess(PtrDerefNode node, String expr) {
+		return "(deref " + node.getType() + " " + expr + ")";
+	}
+
+	@Override
+	protected String postprocess(AddrOfNode node, String expr) {
+		return "(addr " + node.getType() + " " + expr + ")";
+	}
+
+	@Override
+	protected String postprocess(MallocNode node, String arg) {
+		return "(malloc " + arg + ")";
+	}
+
+	@Override
+	protected String postprocess(FreeNode node, String arg) {
+		return "(free " + arg + ")";
+	}
+
+}
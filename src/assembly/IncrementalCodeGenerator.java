@@ -0,0 +1,159 @@
+package assembly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ast.FunctionListNode;
+import ast.FunctionNode;
+
+/**
+ * Generates code for a program one function at a time, reusing the code of
+ * functions that have not changed since an earlier compilation.
+ *
+ * Each function is keyed by a hash of its {@link FunctionFingerprint} (its
+ * body plus the symbol table entries and signatures it depends on) and a salt
+ * for the compiler version and options. Code is stored with label numbers
+ * starting from zero, as if the function came first in the file, and
+ * relocated to the function's real label range when it is used, the same
+ * ranges {@link ParallelCodeGenerator} hands out. Adding or removing an if in
+ * one function therefore does not invalidate the functions after it.
+ *
+ * The result is the same text the serial {@link CodeGenerator} produces.
+ */
+public class IncrementalCodeGenerator {
+
+	/**
+	 * Where generated functions are kept between compilations.
+	 */
+	public interface FunctionStore {
+		/**
+		 * @return the entry stored under <code>key</code>, or null
+		 */
+		String get(String key);
+
+		void put(String key, String entry);
+	}
+
+	private static final Pattern LABEL = Pattern.compile("\\b(loop|else|out)_(\\d+)\\b");
+
+	private PrintStream out;
+	private FunctionStore store;
+	private String salt;
+	private boolean hoistInvariants;
+
+	private int reused = 0;
+	private int generated = 0;
+
+	public IncrementalCodeGenerator(PrintStream out, FunctionStore store, String salt) {
+		this.out = out;
+		this.store = store;
+		this.salt = salt;
+	}
+
+	/**
+	 * See {@link CodeGenerator#setHoistInvariants}.
+	 */
+	public void setHoistInvariants(boolean hoistInvariants) {
+		this.hoistInvariants = hoistInvariants;
+	}
+
+	/**
+	 * Generate the code for a program. Diagnostics are written to
+	 * <code>out</code> as they would be by {@link CodeGenerator}.
+	 *
+	 * @return the text of the program, as <code>CodeObject.toString()</code> would render it
+	 */
+	public String run(FunctionListNode node) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(";Current temp: null\n;IR Code: \n");
+		sb.append(new CodeGenerator(out).generateStartup().toString());
+
+		LabelCounter counter = new LabelCounter();
+		for (FunctionNode f : node.getFunctions()) {
+			int loopBase = counter.loops;
+			int elseBase = counter.ifs;
+			int outBase = counter.ifs + counter.loops;
+			counter.run(f);
+
+			String key = hash(salt + "\0" + new FunctionFingerprint().run(f));
+			String entry = store.get(key);
+			if (entry == null) {
+				entry = generate(f);
+				store.put(key, entry);
+				generated++;
+			} else {
+				reused++;
+			}
+
+			//entry: length of the diagnostics, newline, diagnostics, code
+			int nl = entry.indexOf('\n');
+			int diagnostics = Integer.parseInt(entry.substring(0, nl));
+			out.print(entry.substring(nl + 1, nl + 1 + diagnostics));
+			relocate(entry.substring(nl + 1 + diagnostics), loopBase, elseBase, outBase, sb);
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	private String generate(FunctionNode f) {
+		ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(diagnostics);
+		CodeGenerator cg = new CodeGenerator(ps, 0, 0, 0);
+		cg.setHoistInvariants(hoistInvariants);
+		CodeObject co = cg.run(f);
+		ps.flush();
+		String diag = diagnostics.toString();
+		return diag.length() + "\n" + diag + co.code.toString();
+	}
+
+	private static void relocate(String code, int loopBase, int elseBase, int outBase, StringBuilder sb) {
+		if (loopBase == 0 && elseBase == 0 && outBase == 0) {
+			sb.append(code);
+			return;
+		}
+		Matcher m = LABEL.matcher(code);
+		int last = 0;
+		while (m.find()) {
+			int base;
+			switch (m.group(1)) {
+			case "loop" : base = loopBase; break;
+			case "else" : base = elseBase; break;
+			default : base = outBase;
+			}
+			sb.append(code, last, m.start(2)).append(Integer.parseInt(m.group(2)) + base);
+			last = m.end();
+		}
+		sb.append(code, last, code.length());
+	}
+
+	private static String hash(String s) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e);
+		}
+	}
+
+	/**
+	 * @return number of functions whose code came from the store
+	 */
+	public int getReused() {
+		return reused;
+	}
+
+	/**
+	 * @return number of functions generated from scratch
+	 */
+	public int getGenerated() {
+		return generated;
+	}
+
+}
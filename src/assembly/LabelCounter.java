@@ -0,0 +1,24 @@
+package assembly;
+
+import ast.IfStatementNode;
+import ast.WhileNode;
+import ast.visitor.AbstractASTVisitor;
+
+/**
+ * Counts the statements that consume labels. Every if uses one else label
+ * and one out label; every while uses one loop label and one out label.
+ */
+class LabelCounter extends AbstractASTVisitor<Void> {
+	int ifs = 0;
+	int loops = 0;
+
+	@Override
+	protected void preprocess(IfStatementNode node) {
+		ifs++;
+	}
+
+	@Override
+	protected void preprocess(WhileNode node) {
+		loops++;
+	}
+}
@@ -0,0 +1,162 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assembly.instructions.Instruction;
+
+/**
+ * Moves the instructions of a loop that compute the same value every time
+ * round to just before it, so they run once instead of once per iteration.
+ *
+ * The code generator gives every value a fresh temporary, so an instruction
+ * can go if its temporary is written nowhere else in the loop and not read
+ * before it, and each register it reads is either not written in the loop
+ * or written by an instruction that goes too. That covers what a loop
+ * recomputes from scratch on every iteration: literals, the
+ * <code>ADDI tX, fp, offset</code> and <code>LA</code> of the variables it
+ * uses, and arithmetic and conversions over those. Only instructions that
+ * can neither fault nor have an effect are moved (so not DIV), as the loop
+ * may not run at all or may leave before reaching them.
+ *
+ * Loads are moved if they are of a variable the loop does not store to:
+ *
+ * <ul>
+ * <li>a local or parameter, at a known offset from fp, if no store in the
+ * loop is to that offset. If the function takes the address of any of its
+ * locals, the loop must also make no calls and no stores through pointers,
+ * which may be to that local.</li>
+ * <li>a global, by its <code>LA</code>, if no store in the loop is to it
+ * and the loop makes no calls and no stores through pointers.</li>
+ * </ul>
+ *
+ * Loads through pointers stay where they are. Stores to the stack below
+ * sp, which is where calls put their arguments, are not to any variable.
+ *
+ * Loops are handled innermost first, so an inner loop's invariants can
+ * move on out of the loops around it.
+ */
+class LoopInvariants {
+
+	private final boolean addressed; //the function takes the address of a local
+
+	/**
+	 * @param addressed whether the function the loops are in takes the
+	 *                  address of any of its locals or parameters
+	 */
+	LoopInvariants(boolean addressed) {
+		this.addressed = addressed;
+	}
+
+	/**
+	 * Take the invariant instructions out of <code>loop</code>, the code
+	 * from the loop label up to its closing jump.
+	 *
+	 * @return the instructions taken out, in order, to be put before the loop
+	 */
+	List<Instruction> hoist(List<Instruction> loop) {
+		//Step 1: where each register is written
+		Map<String, Instruction> defs = new HashMap<String, Instruction>();
+		Set<String> redefined = new HashSet<String>();
+		for (Instruction i : loop) {
+			String d = i.getDef();
+			if (d != null && defs.put(d, i) != null) redefined.add(d);
+		}
+
+		//Step 2: what the loop may store to
+		Set<Integer> slots = new HashSet<Integer>();
+		Set<String> globals = new HashSet<String>();
+		boolean unknown = false;
+		for (Instruction i : loop) {
+			if (i.isCall()) {
+				unknown = true;
+			} else if (i.isStore()) {
+				Object to = address(i, defs);
+				if (to instanceof Integer) {
+					slots.add((Integer) to);
+				} else if (to instanceof String) {
+					globals.add((String) to);
+				} else if (!i.getBase().equals("sp")) {
+					unknown = true;
+				}
+			}
+		}
+
+		//Step 3: pick the invariant instructions, in order
+		Set<Instruction> hoisted = Collections.newSetFromMap(new IdentityHashMap<Instruction, Boolean>());
+		Set<String> invariant = new HashSet<String>();
+		Set<String> seen = new HashSet<String>();
+		for (Instruction i : loop) {
+			String d = i.getDef();
+			boolean move = d != null && isTemp(d) && !redefined.contains(d) && !seen.contains(d);
+			for (String u : i.getUses()) {
+				move &= !defs.containsKey(u) || invariant.contains(u);
+				seen.add(u);
+			}
+			if (d != null) seen.add(d);
+			if (!move) continue;
+
+			if (i.isLoad()) {
+				Object from = address(i, defs);
+				if (from instanceof Integer) {
+					move = !slots.contains(from) && !(addressed && unknown);
+				} else if (from instanceof String) {
+					move = !globals.contains(from) && !unknown;
+				} else {
+					move = false;
+				}
+			} else {
+				move = i.isPure();
+			}
+			if (move) {
+				hoisted.add(i);
+				invariant.add(d);
+			}
+		}
+
+		//Step 4: take them out
+		List<Instruction> pre = new ArrayList<Instruction>(hoisted.size());
+		if (hoisted.isEmpty()) return pre;
+		for (Iterator<Instruction> it = loop.iterator(); it.hasNext(); ) {
+			Instruction i = it.next();
+			if (hoisted.contains(i)) {
+				pre.add(i);
+				it.remove();
+			}
+		}
+		return pre;
+	}
+
+	/**
+	 * The variable a load or store is to: its offset from fp if it is a
+	 * local or parameter, the address of its <code>LA</code> if it is a
+	 * global, or null if it goes through a pointer.
+	 */
+	private static Object address(Instruction ls, Map<String, Instruction> defs) {
+		int offset = Integer.parseInt(ls.getImmediate());
+		if (ls.getBase().equals("fp")) return offset;
+		Instruction base = defs.get(ls.getBase());
+		if (base == null) return null;
+		if (base.isAddi() && base.getUses().get(0).equals("fp")) return Integer.parseInt(base.getImmediate()) + offset;
+		if (base.isLa() && offset == 0) return base.getImmediate();
+		return null;
+	}
+
+	/**
+	 * Whether <code>reg</code> is one of the code generator's temporaries,
+	 * rather than sp, fp, ra or x0.
+	 */
+	private static boolean isTemp(String reg) {
+		return reg.length() > 1
+				&& (reg.charAt(0) == CodeGenerator.intTempPrefix || reg.charAt(0) == CodeGenerator.floatTempPrefix)
+				&& Character.isDigit(reg.charAt(1));
+	}
+
+}
@@ -0,0 +1,104 @@
+package assembly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import ast.FunctionListNode;
+import ast.FunctionNode;
+
+/**
+ * Generates code for the functions of a program in parallel.
+ *
+ * Functions are already independent as far as registers go (each one
+ * restarts its temporaries), so the only thing they share is label numbering.
+ * A cheap first pass counts the labels each function will use; every function
+ * then gets its own range of label numbers, starting where the previous
+ * function's range ends. That is exactly the numbering a serial
+ * {@link CodeGenerator} would produce, so the output is byte-for-byte the same
+ * no matter how many threads run.
+ *
+ * Diagnostics written while generating a function are buffered and replayed
+ * in source order.
+ */
+public class ParallelCodeGenerator {
+
+	private PrintStream out;
+	private int threads;
+	private boolean hoistInvariants;
+
+	public ParallelCodeGenerator(PrintStream out, int threads) {
+		this.out = out;
+		this.threads = threads;
+	}
+
+	/**
+	 * See {@link CodeGenerator#setHoistInvariants}.
+	 */
+	public void setHoistInvariants(boolean hoistInvariants) {
+		this.hoistInvariants = hoistInvariants;
+	}
+
+	public CodeObject run(FunctionListNode node) {
+		List<FunctionNode> functions = new ArrayList<FunctionNode>(node.getFunctions());
+
+		//Step 1: give every function the label numbers a serial walk would
+		int[] loopBase = new int[functions.size()];
+		int[] elseBase = new int[functions.size()];
+		int[] outBase = new int[functions.size()];
+		LabelCounter counter = new LabelCounter();
+		for (int i = 0; i < functions.size(); i++) {
+			loopBase[i] = counter.loops;
+			elseBase[i] = counter.ifs;
+			outBase[i] = counter.ifs + counter.loops;
+			counter.run(functions.get(i));
+		}
+
+		//Step 2: generate each function on its own code generator
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<FunctionResult> results;
+		try {
+			results = pool.submit(() -> IntStream.range(0, functions.size()).parallel()
+					.mapToObj(i -> generate(functions.get(i), loopBase[i], elseBase[i], outBase[i]))
+					.collect(Collectors.toList())).get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new Error(e);
+		} finally {
+			pool.shutdown();
+		}
+
+		//Step 3: replay diagnostics and stitch the functions together in source order
+		List<CodeObject> funcs = new ArrayList<CodeObject>(results.size());
+		for (FunctionResult r : results) {
+			out.print(r.diagnostics);
+			funcs.add(r.code);
+		}
+		return new CodeGenerator(out).postprocess(node, funcs);
+	}
+
+	private FunctionResult generate(FunctionNode f, int loopBase, int elseBase, int outBase) {
+		ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(diagnostics);
+		CodeGenerator cg = new CodeGenerator(ps, loopBase, elseBase, outBase);
+		cg.setHoistInvariants(hoistInvariants);
+		CodeObject co = cg.run(f);
+		ps.flush();
+		return new FunctionResult(co, diagnostics.toString());
+	}
+
+	private static class FunctionResult {
+		CodeObject code;
+		String diagnostics;
+
+		FunctionResult(CodeObject code, String diagnostics) {
+			this.code = code;
+			this.diagnostics = diagnostics;
+		}
+	}
+
+}
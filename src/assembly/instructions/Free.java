@@ -1,5 +1,8 @@
 package assembly.instructions;
 
+import java.util.Collections;
+import java.util.List;
+
 public class Free extends Instruction {
 
     String src;
@@ -19,4 +22,14 @@ public class Free extends Instruction {
     public String toString() {
         return String.valueOf(this.oc) + " " + src;
     }
+
+    @Override
+    public List<String> getUses() {
+        return Collections.singletonList(src);
+    }
+
+    @Override
+    public String getDef() {
+        return null;
+    }
 }
\ No newline at end of file
@@ -1,8 +1,13 @@
 package assembly.instructions;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Superclass for all Instructions. Most fields do not have accessors
- * because they are only used in toString methods used to emit instructions.
+ * because they are only used in toString methods used to emit instructions;
+ * the ones below are for passes that move instructions around.
  */
 public abstract class Instruction {
 
@@ -86,4 +91,94 @@ public abstract class Instruction {
     public String getDest() {
         return this.dest;
     }
+
+	/**
+	 * @return the registers this instruction reads
+	 */
+	public List<String> getUses() {
+		if (oc == null) return Collections.emptyList();
+		switch (oc) {
+		case ADD : case SUB : case DIV : case MUL :
+		case FADDS : case FSUBS : case FDIVS : case FMULS :
+		case FLT : case FLE : case FEQ :
+		case BEQ : case BGE : case BGT : case BLE : case BLT : case BNE :
+			return Arrays.asList(src1, src2);
+		case SW : case FSW :
+			return Arrays.asList(dest, src1);
+		case ADDI : case MV : case NEG : case FMVS : case FNEGS : case FMOVIS : case IMOVFS :
+		case LW : case FLW : case PUTI : case PUTF : case PUTS :
+			return Collections.singletonList(src1);
+		default :
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * @return the register this instruction writes, or null if it writes none
+	 */
+	public String getDef() {
+		if (oc == null) return null;
+		switch (oc) {
+		case SW : case FSW :
+		case BEQ : case BGE : case BGT : case BLE : case BLT : case BNE :
+		case J : case JR : case RET : case HALT :
+		case PUTI : case PUTF : case PUTS :
+			return null;
+		default :
+			return dest;
+		}
+	}
+
+	/**
+	 * @return whether this instruction does nothing but compute its
+	 *         destination from its operands and cannot fault, so it can be
+	 *         run earlier or more often than written (DIV traps on zero)
+	 */
+	public boolean isPure() {
+		if (oc == null) return false;
+		switch (oc) {
+		case LI : case LA : case FIMMS :
+		case ADD : case ADDI : case SUB : case MUL : case NEG : case MV :
+		case FADDS : case FSUBS : case FDIVS : case FMULS : case FMVS : case FNEGS :
+		case FLT : case FLE : case FEQ : case FMOVIS : case IMOVFS :
+			return true;
+		default :
+			return false;
+		}
+	}
+
+	public boolean isLoad() {
+		return oc == OpCode.LW || oc == OpCode.FLW;
+	}
+
+	public boolean isStore() {
+		return oc == OpCode.SW || oc == OpCode.FSW;
+	}
+
+	public boolean isCall() {
+		return oc == OpCode.JR;
+	}
+
+	public boolean isAddi() {
+		return oc == OpCode.ADDI;
+	}
+
+	public boolean isLa() {
+		return oc == OpCode.LA;
+	}
+
+	/**
+	 * @return the register holding the base address of a load or store
+	 */
+	public String getBase() {
+		return src1;
+	}
+
+	/**
+	 * @return the offset of a load or store, the immediate of an ADDI, or
+	 *         the address of an LA
+	 */
+	public String getImmediate() {
+		return (oc == OpCode.ADDI) ? src2 : label;
+	}
 }
\ No newline at end of file
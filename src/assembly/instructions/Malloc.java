@@ -1,5 +1,8 @@
 package assembly.instructions;
 
+import java.util.Collections;
+import java.util.List;
+
 public class Malloc extends Instruction {
 
     String src;
@@ -21,4 +24,14 @@ public class Malloc extends Instruction {
     public String toString() {
         return String.valueOf(this.oc) + " " + dst + ", " + src;
     }
+
+    @Override
+    public List<String> getUses() {
+        return Collections.singletonList(src);
+    }
+
+    @Override
+    public String getDef() {
+        return dst;
+    }
 }
\ No newline at end of file
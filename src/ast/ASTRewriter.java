@@ -0,0 +1,177 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ast.visitor.AbstractASTVisitor;
+
+/**
+ * Base for visitors that rewrite the AST, such as {@link ConstantFolder}.
+ *
+ * Each <code>postprocess</code> gets the rewritten children of a node and
+ * returns the node itself if none of them changed, or a new node of the
+ * same kind over the new children if any did. So a subtree with nothing to
+ * rewrite is returned as it is, and the tree being rewritten is never
+ * changed. A subclass overrides the nodes it rewrites.
+ *
+ * A statement may be rewritten to a {@link StatementListNode}, e.g. an
+ * <code>if</code> to the arm that is always taken; it is spliced into the
+ * enclosing list in its place.
+ */
+public abstract class ASTRewriter extends AbstractASTVisitor<ASTNode> {
+
+	static final String[] BINARY_TEXT = {"+", "-", "*", "/"}; //by BinaryOpNode.OpType
+	static final String[] COND_TEXT = {"==", "!=", "<", "<=", ">", ">="}; //by CondNode.OpType
+
+	@Override
+	protected ASTNode postprocess(VarNode node) {
+		return node;
+	}
+
+	@Override
+	protected ASTNode postprocess(IntLitNode node) {
+		return node;
+	}
+
+	@Override
+	protected ASTNode postprocess(FloatLitNode node) {
+		return node;
+	}
+
+	@Override
+	protected ASTNode postprocess(BinaryOpNode node, ASTNode left, ASTNode right) {
+		if (left == node.getLeft() && right == node.getRight()) return node;
+		return new BinaryOpNode((ExpressionNode) left, (ExpressionNode) right, BINARY_TEXT[node.getOp().ordinal()]);
+	}
+
+	@Override
+	protected ASTNode postprocess(CastExprNode node, ASTNode expr) {
+		if (expr == node.getExpr()) return node;
+		return new CastExprNode((ExpressionNode) expr, node.getCastType());
+	}
+
+	@Override
+	protected ASTNode postprocess(UnaryOpNode node, ASTNode expr) {
+		if (expr == node.getExpr()) return node;
+		return new UnaryOpNode((ExpressionNode) expr, "-");
+	}
+
+	@Override
+	protected ASTNode postprocess(AssignNode node, ASTNode left, ASTNode right) {
+		if (left == node.getLeft() && right == node.getRight()) return node;
+		return new AssignNode((TypedASTNode) left, (ExpressionNode) right);
+	}
+
+	@Override
+	protected ASTNode postprocess(StatementListNode node, List<ASTNode> statements) {
+		boolean changed = false;
+		int i = 0;
+		for (StatementNode s : node.getStatements()) {
+			if (statements.get(i++) != s) {
+				changed = true;
+				break;
+			}
+		}
+		if (!changed) return node;
+
+		List<StatementNode> list = new ArrayList<StatementNode>(statements.size());
+		for (ASTNode s : statements) {
+			if (s instanceof StatementListNode) {
+				list.addAll(((StatementListNode) s).getStatements());
+			} else {
+				list.add((StatementNode) s);
+			}
+		}
+		return new StatementListNode(list);
+	}
+
+	@Override
+	protected ASTNode postprocess(ReadNode node, ASTNode var) {
+		if (var == node.getVarNode()) return node;
+		return new ReadNode((VarNode) var);
+	}
+
+	@Override
+	protected ASTNode postprocess(WriteNode node, ASTNode writeExpr) {
+		if (writeExpr == node.getWriteExpr()) return node;
+		return new WriteNode((ExpressionNode) writeExpr);
+	}
+
+	@Override
+	protected ASTNode postprocess(CondNode node, ASTNode left, ASTNode right) {
+		if (left == node.getLeft() && right == node.getRight()) return node;
+		return new CondNode((ExpressionNode) left, (ExpressionNode) right, COND_TEXT[node.getOp().ordinal()]);
+	}
+
+	@Override
+	protected ASTNode postprocess(IfStatementNode node, ASTNode cond, ASTNode tlist, ASTNode elist) {
+		if (cond == node.getCondExpr() && tlist == node.getThenBlock() && elist == node.getElseBlock()) return node;
+		return new IfStatementNode((CondNode) cond, (StatementListNode) tlist, (StatementListNode) elist);
+	}
+
+	@Override
+	protected ASTNode postprocess(WhileNode node, ASTNode cond, ASTNode slist) {
+		if (cond == node.getCond() && slist == node.getSlist()) return node;
+		return new WhileNode((CondNode) cond, (StatementListNode) slist);
+	}
+
+	@Override
+	protected ASTNode postprocess(ReturnNode node, ASTNode retExpr) {
+		if (retExpr == node.getRetExpr()) return node;
+		return new ReturnNode((ExpressionNode) retExpr, node.getFuncSymbol());
+	}
+
+	@Override
+	protected ASTNode postprocess(FunctionNode node, ASTNode body) {
+		if (body == node.getFuncBody()) return node;
+		return new FunctionNode((StatementListNode) body, node.getFuncName(), node.getScope());
+	}
+
+	@Override
+	protected ASTNode postprocess(FunctionListNode node, List<ASTNode> functions) {
+		List<FunctionNode> list = new ArrayList<FunctionNode>(functions.size());
+		for (ASTNode f : functions) {
+			list.add((FunctionNode) f);
+		}
+		return new FunctionListNode(list);
+	}
+
+	@Override
+	protected ASTNode postprocess(CallNode node, List<ASTNode> args) {
+		List<ExpressionNode> list = new ArrayList<ExpressionNode>(args.size());
+		boolean changed = false;
+		int i = 0;
+		for (ExpressionNode arg : node.getArgs()) {
+			ASTNode a = args.get(i++);
+			changed |= (a != arg);
+			list.add((ExpressionNode) a);
+		}
+		if (!changed) return node;
+		return new CallNode(node.ste, list);
+	}
+
+	@Override
+	protected ASTNode postprocess(PtrDerefNode node, ASTNode expr) {
+		if (expr == node.getExpr()) return node;
+		return new PtrDerefNode((ExpressionNode) expr);
+	}
+
+	@Override
+	protected ASTNode postprocess(AddrOfNode node, ASTNode expr) {
+		if (expr == node.getExpr()) return node;
+		return new AddrOfNode((ExpressionNode) expr);
+	}
+
+	@Override
+	protected ASTNode postprocess(MallocNode node, ASTNode arg) {
+		if (arg == node.getArg()) return node;
+		return new MallocNode((ExpressionNode) arg);
+	}
+
+	@Override
+	protected ASTNode postprocess(FreeNode node, ASTNode arg) {
+		if (arg == node.getArg()) return node;
+		return new FreeNode((ExpressionNode) arg);
+	}
+
+}
@@ -5,21 +5,41 @@ import compiler.Scope;
 import java.util.List;
 
 import ast.visitor.ASTVisitor;
-import compiler.Compiler;
+import compiler.CompilationContext;
 
 public class CallNode extends AbstractCallNode {
 
     List<ExpressionNode> args;
     String funcName;
     Scope.FunctionSymbolTableEntry ste;
+    boolean tail;
 
-    public CallNode(String funcName, List<ExpressionNode> args) {
-        this.ste = (Scope.FunctionSymbolTableEntry) Compiler.symbolTable.getFunctionSymbol(funcName);
+    public CallNode(String funcName, List<ExpressionNode> args, CompilationContext ctx) {
+        this.ste = (Scope.FunctionSymbolTableEntry) ctx.getSymbolTable().getFunctionSymbol(funcName);
         this.funcName = funcName;
         this.args = args;
         this.type = ste.getReturnType();
     }
 
+    /**
+     * A call node for a function that has already been looked up.
+     */
+    CallNode(Scope.FunctionSymbolTableEntry ste, List<ExpressionNode> args) {
+        this.ste = ste;
+        this.funcName = ste.getName();
+        this.args = args;
+        this.type = ste.getReturnType();
+    }
+
+    /**
+     * A call node for a call that {@link TailCalls} has found the caller
+     * returns the value of, so it can reuse the caller's frame.
+     */
+    CallNode(Scope.FunctionSymbolTableEntry ste, List<ExpressionNode> args, boolean tail) {
+        this(ste, args);
+        this.tail = tail;
+    }
+
     @Override
     public <R> R accept(ASTVisitor<R> visitor) {
         return visitor.visit(this);
@@ -32,5 +52,13 @@ public class CallNode extends AbstractCallNode {
     public String getFuncName() {
         return funcName;
     }
+
+    /**
+     * Whether the call is made by jumping to the callee from the caller's
+     * epilogue, leaving the callee to return to the caller's caller.
+     */
+    public boolean isTailCall() {
+        return tail;
+    }
     
 }
\ No newline at end of file
@@ -0,0 +1,481 @@
+package ast;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+import ast.visitor.AbstractASTVisitor;
+import compiler.LocalScope;
+import compiler.Scope;
+import compiler.Scope.FunctionSymbolTableEntry;
+import compiler.Scope.SymbolTableEntry;
+
+/**
+ * The body of one function packed into a few primitive arrays, for holding
+ * the AST of a large program in a fraction of the memory its node objects
+ * take.
+ *
+ * Nodes are numbered in preorder, so the children of a node follow it
+ * directly and a subtree is one contiguous run of indices. Each node has a
+ * kind, the size of its subtree, and a value whose meaning depends on the
+ * kind: an operator, the type a cast is to in a small per function table,
+ * or the index of a symbol table entry or literal text in another small
+ * table. A subscript, which the parser builds as <code>*(a + i * 4)</code>
+ * out of four nodes, is one {@link Kind#INDEX} node.
+ *
+ * The compact form is only for holding a function until its code is
+ * generated, not something code is generated from: there is no cursor or
+ * visitor over the arrays. {@link #inflate} gets the node objects back for
+ * the visitors, building the same nodes that the parser built. Their types
+ * are worked out again as they are built, the way the parser's were, so
+ * none are stored and code generated from them is the same.
+ *
+ * So it saves memory at rest and nothing else. Every function is
+ * allocated as nodes twice, when it is parsed and when it is inflated, and
+ * code generation reads those nodes, not the arrays, so its locality is
+ * the same as without the compact form.
+ */
+public class CompactFunction {
+
+	/**
+	 * What a compact node is. Each is the node class of the same name, but
+	 * for {@link #INDEX} and {@link #TAIL_CALL}.
+	 */
+	public enum Kind {
+		VAR, INT_LIT, FLOAT_LIT, BINARY_OP, CAST_EXPR, UNARY_OP, ASSIGN, STATEMENT_LIST, READ, WRITE,
+		COND, IF, WHILE, RETURN, CALL, PTR_DEREF, ADDR_OF, MALLOC, FREE,
+		/** <code>a[i]</code>: an array base and an index */
+		INDEX,
+		/** A {@link CallNode#isTailCall tail call} */
+		TAIL_CALL
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+	private static final String[] BINARY_TEXT = {"+", "-", "*", "/"}; //by BinaryOpNode.OpType
+	private static final String[] COND_TEXT = {"==", "!=", "<", "<=", ">", ">="}; //by CondNode.OpType
+
+	private final String name;
+	private final LocalScope scope;
+
+	private final byte[] kinds;
+	private final int[] sizes; //number of nodes in the subtree of each node, itself included
+	private final int[] values;
+	private final Scope.Type[] typeTable; //the types casts are to
+	private final Object[] refs; //symbol table entries and literal texts
+
+	private CompactFunction(Builder b, String name, LocalScope scope) {
+		this.name = name;
+		this.scope = scope;
+		this.kinds = Arrays.copyOf(b.kinds, b.count);
+		this.sizes = Arrays.copyOf(b.sizes, b.count);
+		this.values = Arrays.copyOf(b.values, b.count);
+		this.typeTable = b.typeTable.toArray(new Scope.Type[b.typeTable.size()]);
+		this.refs = b.refs.toArray();
+	}
+
+	/**
+	 * Pack the body of <code>f</code>.
+	 */
+	public static CompactFunction of(FunctionNode f) {
+		Builder b = new Builder();
+		b.run(f.getFuncBody());
+		return new CompactFunction(b, f.getFuncName(), f.getScope());
+	}
+
+	/**
+	 * A list of the functions of a program that inflates each one as it is
+	 * read, so a visitor walking the program only has one function's nodes
+	 * alive at a time. Every read inflates again.
+	 */
+	public static List<FunctionNode> inflating(List<CompactFunction> functions) {
+		return new Inflating(functions);
+	}
+
+	public String getFuncName() {
+		return name;
+	}
+
+	public LocalScope getScope() {
+		return scope;
+	}
+
+	/**
+	 * The number of nodes in the body.
+	 */
+	public int size() {
+		return kinds.length;
+	}
+
+	/**
+	 * The function as node objects again.
+	 *
+	 * Nodes are built from the last index to the first, so the children of
+	 * each node are built before it, without recursion however deep the body.
+	 */
+	public FunctionNode inflate() {
+		ASTNode[] nodes = new ASTNode[kinds.length];
+		for (int n = kinds.length - 1; n >= 0; n--) {
+			nodes[n] = build(n, nodes);
+		}
+		return new FunctionNode((StatementListNode) nodes[0], name, scope);
+	}
+
+	private ASTNode build(int n, ASTNode[] nodes) {
+		int c0 = n + 1;
+		int c1 = (sizes[n] > 1) ? c0 + sizes[c0] : -1;
+		int c2 = (c1 >= 0 && c1 < n + sizes[n]) ? c1 + sizes[c1] : -1;
+		switch (KINDS[kinds[n]]) {
+		case VAR : return new VarNode((SymbolTableEntry) refs[values[n]]);
+		case INT_LIT : return new IntLitNode((String) refs[values[n]]);
+		case FLOAT_LIT : return new FloatLitNode((String) refs[values[n]]);
+		case BINARY_OP : return new BinaryOpNode(expr(nodes, c0), expr(nodes, c1), BINARY_TEXT[values[n]]);
+		case CAST_EXPR : return new CastExprNode(expr(nodes, c0), typeTable[values[n]]);
+		case UNARY_OP : return new UnaryOpNode(expr(nodes, c0), "-");
+		case ASSIGN : return new AssignNode((TypedASTNode) nodes[c0], expr(nodes, c1));
+		case READ : return new ReadNode((VarNode) nodes[c0]);
+		case WRITE : return new WriteNode(expr(nodes, c0));
+		case COND : return new CondNode(expr(nodes, c0), expr(nodes, c1), COND_TEXT[values[n]]);
+		case IF :
+			StatementListNode elist = (c2 >= 0 && c2 < n + sizes[n]) ? (StatementListNode) nodes[c2] : null;
+			return new IfStatementNode((CondNode) nodes[c0], (StatementListNode) nodes[c1], elist);
+		case WHILE : return new WhileNode((CondNode) nodes[c0], (StatementListNode) nodes[c1]);
+		case RETURN :
+			return new ReturnNode((sizes[n] > 1) ? expr(nodes, c0) : null, (FunctionSymbolTableEntry) refs[values[n]]);
+		case PTR_DEREF : return new PtrDerefNode(expr(nodes, c0));
+		case ADDR_OF : return new AddrOfNode(expr(nodes, c0));
+		case MALLOC : return new MallocNode(expr(nodes, c0));
+		case FREE : return new FreeNode(expr(nodes, c0));
+		case INDEX :
+			return new PtrDerefNode(new BinaryOpNode(expr(nodes, c0),
+					new BinaryOpNode(expr(nodes, c1), new IntLitNode("4"), "*"), "+"));
+		case STATEMENT_LIST : {
+			List<StatementNode> statements = new ArrayList<StatementNode>();
+			for (int c = c0; c < n + sizes[n]; c += sizes[c]) {
+				statements.add((StatementNode) nodes[c]);
+			}
+			return new StatementListNode(statements);
+		}
+		case CALL :
+		case TAIL_CALL : {
+			List<ExpressionNode> args = new ArrayList<ExpressionNode>();
+			for (int c = c0; c < n + sizes[n]; c += sizes[c]) {
+				args.add((ExpressionNode) nodes[c]);
+			}
+			return new CallNode((FunctionSymbolTableEntry) refs[values[n]], args, KINDS[kinds[n]] == Kind.TAIL_CALL);
+		}
+		default : throw new Error("Bad compact node kind " + kinds[n]);
+		}
+	}
+
+	private static ExpressionNode expr(ASTNode[] nodes, int n) {
+		return (ExpressionNode) nodes[n];
+	}
+
+	/**
+	 * Packs a body as a visitor walks it: a node takes the next index when
+	 * it is preprocessed, and learns the size of its subtree when it is
+	 * postprocessed.
+	 */
+	private static class Builder extends AbstractASTVisitor<Void> {
+
+		private byte[] kinds = new byte[256];
+		private int[] sizes = new int[256];
+		private int[] values = new int[256];
+		private int count = 0;
+
+		private int[] open = new int[64]; //nodes whose subtrees are not finished
+		private int depth = 0;
+
+		private final List<Scope.Type> typeTable = new ArrayList<Scope.Type>();
+		private final HashMap<Scope.Type, Integer> typeIds = new HashMap<Scope.Type, Integer>();
+		private final List<Object> refs = new ArrayList<Object>();
+		private final HashMap<Object, Integer> refIds = new HashMap<Object, Integer>();
+		/** The three nodes under each subscript's PtrDerefNode, which INDEX stands for */
+		private final IdentityHashMap<ASTNode, Boolean> folded = new IdentityHashMap<ASTNode, Boolean>();
+
+		private void open(Kind kind, int value) {
+			if (count == kinds.length) {
+				int n = count * 2;
+				kinds = Arrays.copyOf(kinds, n);
+				sizes = Arrays.copyOf(sizes, n);
+				values = Arrays.copyOf(values, n);
+			}
+			if (depth == open.length) {
+				open = Arrays.copyOf(open, depth * 2);
+			}
+			kinds[count] = (byte) kind.ordinal();
+			values[count] = value;
+			open[depth++] = count++;
+		}
+
+		private Void close() {
+			int n = open[--depth];
+			sizes[n] = count - n;
+			return null;
+		}
+
+		private int typeId(Scope.Type type) {
+			Integer id = typeIds.get(type);
+			if (id == null) {
+				id = typeTable.size();
+				typeTable.add(type);
+				typeIds.put(type, id);
+			}
+			return id;
+		}
+
+		/**
+		 * The index of a symbol table entry or a literal text in the refs.
+		 * Entries are told apart by identity, texts by value.
+		 */
+		private int refId(Object ref) {
+			Integer id = refIds.get(ref);
+			if (id == null) {
+				id = refs.size();
+				refs.add(ref);
+				refIds.put(ref, id);
+			}
+			return id;
+		}
+
+		/**
+		 * Whether <code>node</code> is a subscript, <code>*(a + i * 4)</code>.
+		 */
+		private static boolean isIndex(PtrDerefNode node) {
+			if (node.getExpr().getClass() != BinaryOpNode.class) return false;
+			BinaryOpNode add = (BinaryOpNode) node.getExpr();
+			if (add.getOp() != BinaryOpNode.OpType.ADD || add.getRight().getClass() != BinaryOpNode.class) return false;
+			BinaryOpNode mul = (BinaryOpNode) add.getRight();
+			return mul.getOp() == BinaryOpNode.OpType.MUL && mul.getRight().getClass() == IntLitNode.class
+					&& ((IntLitNode) mul.getRight()).getVal().equals("4");
+		}
+
+		@Override
+		protected void preprocess(VarNode node) {
+			open(Kind.VAR, refId(node.getSymbol()));
+		}
+
+		@Override
+		protected Void postprocess(VarNode node) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(IntLitNode node) {
+			if (folded.containsKey(node)) return;
+			open(Kind.INT_LIT, refId(node.getVal()));
+		}
+
+		@Override
+		protected Void postprocess(IntLitNode node) {
+			return (folded.remove(node) != null) ? null : close();
+		}
+
+		@Override
+		protected void preprocess(FloatLitNode node) {
+			open(Kind.FLOAT_LIT, refId(node.getVal()));
+		}
+
+		@Override
+		protected Void postprocess(FloatLitNode node) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(BinaryOpNode node) {
+			if (folded.containsKey(node)) return;
+			open(Kind.BINARY_OP, node.getOp().ordinal());
+		}
+
+		@Override
+		protected Void postprocess(BinaryOpNode node, Void left, Void right) {
+			return (folded.remove(node) != null) ? null : close();
+		}
+
+		@Override
+		protected void preprocess(CastExprNode node) {
+			open(Kind.CAST_EXPR, typeId(node.getCastType()));
+		}
+
+		@Override
+		protected Void postprocess(CastExprNode node, Void expr) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(UnaryOpNode node) {
+			open(Kind.UNARY_OP, node.getOp().ordinal());
+		}
+
+		@Override
+		protected Void postprocess(UnaryOpNode node, Void expr) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(AssignNode node) {
+			open(Kind.ASSIGN, 0);
+		}
+
+		@Override
+		protected Void postprocess(AssignNode node, Void left, Void right) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(StatementListNode node) {
+			open(Kind.STATEMENT_LIST, 0);
+		}
+
+		@Override
+		protected Void postprocess(StatementListNode node, List<Void> statements) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(ReadNode node) {
+			open(Kind.READ, 0);
+		}
+
+		@Override
+		protected Void postprocess(ReadNode node, Void var) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(WriteNode node) {
+			open(Kind.WRITE, 0);
+		}
+
+		@Override
+		protected Void postprocess(WriteNode node, Void writeExpr) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(CondNode node) {
+			open(Kind.COND, node.getOp().ordinal());
+		}
+
+		@Override
+		protected Void postprocess(CondNode node, Void left, Void right) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(IfStatementNode node) {
+			open(Kind.IF, 0);
+		}
+
+		@Override
+		protected Void postprocess(IfStatementNode node, Void cond, Void tlist, Void elist) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(WhileNode node) {
+			open(Kind.WHILE, 0);
+		}
+
+		@Override
+		protected Void postprocess(WhileNode node, Void cond, Void slist) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(ReturnNode node) {
+			open(Kind.RETURN, refId(node.getFuncSymbol()));
+		}
+
+		@Override
+		protected Void postprocess(ReturnNode node, Void retExpr) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(CallNode node) {
+			open(node.isTailCall() ? Kind.TAIL_CALL : Kind.CALL, refId(node.ste));
+		}
+
+		@Override
+		protected Void postprocess(CallNode node, List<Void> args) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(PtrDerefNode node) {
+			if (isIndex(node)) {
+				BinaryOpNode add = (BinaryOpNode) node.getExpr();
+				BinaryOpNode mul = (BinaryOpNode) add.getRight();
+				folded.put(add, true);
+				folded.put(mul, true);
+				folded.put(mul.getRight(), true);
+				open(Kind.INDEX, 0);
+			} else {
+				open(Kind.PTR_DEREF, 0);
+			}
+		}
+
+		@Override
+		protected Void postprocess(PtrDerefNode node, Void expr) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(AddrOfNode node) {
+			open(Kind.ADDR_OF, 0);
+		}
+
+		@Override
+		protected Void postprocess(AddrOfNode node, Void expr) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(MallocNode node) {
+			open(Kind.MALLOC, 0);
+		}
+
+		@Override
+		protected Void postprocess(MallocNode node, Void arg) {
+			return close();
+		}
+
+		@Override
+		protected void preprocess(FreeNode node) {
+			open(Kind.FREE, 0);
+		}
+
+		@Override
+		protected Void postprocess(FreeNode node, Void arg) {
+			return close();
+		}
+	}
+
+	/**
+	 * See {@link CompactFunction#inflating}.
+	 */
+	private static class Inflating extends AbstractList<FunctionNode> implements RandomAccess {
+
+		private final List<CompactFunction> functions;
+
+		Inflating(List<CompactFunction> functions) {
+			this.functions = functions;
+		}
+
+		@Override
+		public FunctionNode get(int i) {
+			return functions.get(i).inflate();
+		}
+
+		@Override
+		public int size() {
+			return functions.size();
+		}
+	}
+
+}
@@ -0,0 +1,265 @@
+package ast;
+
+import java.util.ArrayDeque;
+
+import compiler.Scope;
+
+/**
+ * Folds constants in the AST before code is generated for it, so that
+ * arithmetic on literals is done once by the compiler instead of every time
+ * the code runs.
+ *
+ * Use {@link #run} on a function (or a whole program); it returns the
+ * folded tree, leaving the one it was given as it was (see
+ * {@link ASTRewriter}). It does:
+ *
+ * <ul>
+ * <li><code>BinaryOpNode</code>, <code>UnaryOpNode</code> and
+ * <code>CastExprNode</code> over literals become a literal of the type the
+ * code would have computed, with the same value: ints wrap, floats are
+ * single precision and int/float conversions truncate, as on the target.
+ * Division by zero, results that are not finite, and operands of different
+ * types (which the code generator converts implicitly) are left alone.</li>
+ * <li>For ints, <code>x + 0</code>, <code>0 + x</code>, <code>x - 0</code>,
+ * <code>x * 1</code>, <code>1 * x</code> and <code>x / 1</code> become
+ * <code>x</code>, and <code>x * 0</code> and <code>0 * x</code> become
+ * <code>0</code> if nothing in <code>x</code> can have an effect or fault
+ * (calls, loads, division by anything but a non-zero literal). Pointers
+ * get <code>p + 0</code> and <code>p - 0</code>, which array subscripts
+ * with a constant index of 0 come down to. Floats get none of these:
+ * <code>x + 0.0</code> is <code>0.0</code> for <code>x = -0.0</code> and
+ * <code>x * 0.0</code> is NaN for infinite <code>x</code>.</li>
+ * <li>An <code>if</code> whose condition compares two literals is replaced
+ * by the statements of the arm that is taken, and a <code>while</code> whose
+ * condition is false is dropped.</li>
+ * </ul>
+ */
+public class ConstantFolder extends ASTRewriter {
+
+	private int folded;
+
+	/**
+	 * How many expressions and statements have been folded so far.
+	 */
+	public int getFolded() {
+		return folded;
+	}
+
+	@Override
+	protected ASTNode postprocess(BinaryOpNode node, ASTNode left, ASTNode right) {
+		ExpressionNode f = fold(node.getOp(), (ExpressionNode) left, (ExpressionNode) right);
+		if (f != null) {
+			folded++;
+			return f;
+		}
+		return super.postprocess(node, left, right);
+	}
+
+	@Override
+	protected ASTNode postprocess(CastExprNode node, ASTNode expr) {
+		ExpressionNode f = cast((ExpressionNode) expr, node.getCastType());
+		if (f != null) {
+			folded++;
+			return f;
+		}
+		return super.postprocess(node, expr);
+	}
+
+	@Override
+	protected ASTNode postprocess(UnaryOpNode node, ASTNode expr) {
+		if (expr instanceof IntLitNode && intValue(expr) != null) {
+			folded++;
+			return intLit(-intValue(expr));
+		}
+		if (expr instanceof FloatLitNode) {
+			folded++;
+			return floatLit(-floatValue(expr));
+		}
+		return super.postprocess(node, expr);
+	}
+
+	@Override
+	protected ASTNode postprocess(IfStatementNode node, ASTNode cond, ASTNode tlist, ASTNode elist) {
+		Boolean taken = evaluate((CondNode) cond);
+		if (taken != null) {
+			folded++;
+			if (taken) return tlist;
+			return (elist != null) ? elist : new StatementListNode();
+		}
+		return super.postprocess(node, cond, tlist, elist);
+	}
+
+	@Override
+	protected ASTNode postprocess(WhileNode node, ASTNode cond, ASTNode slist) {
+		if (evaluate((CondNode) cond) == Boolean.FALSE) {
+			folded++;
+			return new StatementListNode();
+		}
+		return super.postprocess(node, cond, slist);
+	}
+
+	/**
+	 * <code>left op right</code> folded, or null if it does not fold.
+	 */
+	private static ExpressionNode fold(BinaryOpNode.OpType op, ExpressionNode left, ExpressionNode right) {
+		Integer l = intValue(left);
+		Integer r = intValue(right);
+		if (l != null && r != null) {
+			switch (op) {
+			case ADD : return intLit(l + r);
+			case SUB : return intLit(l - r);
+			case MUL : return intLit(l * r);
+			case DIV : return (r == 0) ? null : intLit(l / r);
+			}
+		}
+		if (left instanceof FloatLitNode && right instanceof FloatLitNode) {
+			float a = floatValue(left);
+			float b = floatValue(right);
+			switch (op) {
+			case ADD : return floatLit(a + b);
+			case SUB : return floatLit(a - b);
+			case MUL : return floatLit(a * b);
+			case DIV : return floatLit(a / b);
+			}
+		}
+
+		if (is(left, Scope.InnerType.PTR) && is(right, Scope.InnerType.INT)) {
+			if ((op == BinaryOpNode.OpType.ADD || op == BinaryOpNode.OpType.SUB) && r != null && r == 0) return left;
+			return null;
+		}
+		if (!is(left, Scope.InnerType.INT) || !is(right, Scope.InnerType.INT)) return null;
+		switch (op) {
+		case ADD :
+			if (r != null && r == 0) return left;
+			if (l != null && l == 0) return right;
+			break;
+		case SUB :
+			if (r != null && r == 0) return left;
+			break;
+		case MUL :
+			if (r != null && r == 1) return left;
+			if (l != null && l == 1) return right;
+			if (r != null && r == 0 && pure(left)) return right;
+			if (l != null && l == 0 && pure(right)) return left;
+			break;
+		case DIV :
+			if (r != null && r == 1) return left;
+			break;
+		}
+		return null;
+	}
+
+	/**
+	 * <code>(type) expr</code> folded, or null if it does not fold. Casts to
+	 * and from pointers are left alone, as they change the type but not the
+	 * value.
+	 */
+	private static ExpressionNode cast(ExpressionNode expr, Scope.Type type) {
+		if (type.type == Scope.InnerType.INT) {
+			if (expr instanceof IntLitNode) return expr;
+			if (expr instanceof FloatLitNode) return intLit((int) floatValue(expr));
+		}
+		if (type.type == Scope.InnerType.FLOAT) {
+			if (expr instanceof FloatLitNode) return expr;
+			Integer i = intValue(expr);
+			if (i != null) return floatLit((float) i);
+		}
+		return null;
+	}
+
+	/**
+	 * Whether a condition is always true or always false, or null if it
+	 * depends on something other than literals.
+	 */
+	private static Boolean evaluate(CondNode cond) {
+		int c;
+		Integer l = intValue(cond.getLeft());
+		Integer r = intValue(cond.getRight());
+		if (l != null && r != null) {
+			c = Integer.compare(l, r);
+		} else if (cond.getLeft() instanceof FloatLitNode && cond.getRight() instanceof FloatLitNode) {
+			float a = floatValue(cond.getLeft());
+			float b = floatValue(cond.getRight());
+			c = (a < b) ? -1 : ((a > b) ? 1 : 0); //literals are never NaN
+		} else {
+			return null;
+		}
+		switch (cond.getOp()) {
+		case EQ : return c == 0;
+		case NE : return c != 0;
+		case LT : return c < 0;
+		case LE : return c <= 0;
+		case GT : return c > 0;
+		case GE : return c >= 0;
+		default : throw new Error("Bad op type");
+		}
+	}
+
+	/**
+	 * The value of an int literal, or null if <code>node</code> is not one
+	 * or its text is not plainly a decimal int (such as <code>010</code>,
+	 * which assemblers disagree about).
+	 */
+	private static Integer intValue(ASTNode node) {
+		if (!(node instanceof IntLitNode)) return null;
+		String text = ((IntLitNode) node).getVal();
+		int digits = text.startsWith("-") ? 1 : 0;
+		if (text.length() > digits + 1 && text.charAt(digits) == '0') return null;
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static float floatValue(ASTNode node) {
+		return Float.parseFloat(((FloatLitNode) node).getVal());
+	}
+
+	private static IntLitNode intLit(int value) {
+		return new IntLitNode(Integer.toString(value));
+	}
+
+	/**
+	 * A float literal, or null for a value that has no literal.
+	 */
+	private static FloatLitNode floatLit(float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) return null;
+		return new FloatLitNode(Float.toString(value));
+	}
+
+	private static boolean is(ExpressionNode node, Scope.InnerType type) {
+		return node.getType() != null && node.getType().type == type;
+	}
+
+	/**
+	 * Whether <code>expr</code> can be left out without changing what the
+	 * program does: it has no calls, which may have side effects, and no
+	 * loads or divisions by anything but a non-zero literal, which may
+	 * fault.
+	 */
+	private static boolean pure(ExpressionNode expr) {
+		ArrayDeque<ASTNode> work = new ArrayDeque<ASTNode>();
+		work.push(expr);
+		while (!work.isEmpty()) {
+			ASTNode n = work.pop();
+			if (n instanceof BinaryOpNode) {
+				BinaryOpNode b = (BinaryOpNode) n;
+				if (b.getOp() == BinaryOpNode.OpType.DIV) {
+					Integer divisor = intValue(b.getRight());
+					if (divisor == null || divisor == 0) return false;
+				}
+				work.push(b.getLeft());
+				work.push(b.getRight());
+			} else if (n instanceof UnaryOpNode) {
+				work.push(((UnaryOpNode) n).getExpr());
+			} else if (n instanceof CastExprNode) {
+				work.push(((CastExprNode) n).getExpr());
+			} else if (!(n instanceof VarNode || n instanceof IntLitNode || n instanceof FloatLitNode)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
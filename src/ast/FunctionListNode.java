@@ -57,6 +57,16 @@ public class FunctionListNode implements ASTNode {
 		functions.add(f);
 	}
 	
+	/**
+	 * A function list node over a list the parser has already filled
+	 * in order. The list is used as is, not copied.
+	 * 
+	 * @param functions The functions
+	 */
+	public FunctionListNode(List<FunctionNode> functions) {
+		this.functions = functions;
+	}
+	
 	@Override
 	public <R> R accept(ASTVisitor<R> visitor) {
 		return visitor.visit(this);
@@ -0,0 +1,614 @@
+package ast;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ast.visitor.AbstractASTVisitor;
+import compiler.LocalScope;
+import compiler.Scope;
+import compiler.Scope.FunctionSymbolTableEntry;
+import compiler.Scope.SymbolTableEntry;
+
+/**
+ * Inlines calls to small functions, and to functions called from only one
+ * place, into their callers, saving the argument pushes, the jump and the
+ * prologue and epilogue that save and restore every temporary.
+ *
+ * Use {@link #run} on a whole program. Functions are rewritten callees
+ * first, so a call is replaced by the callee with its own calls already
+ * inlined. A call is inlined where it is the whole of a statement, the
+ * right hand side of an assignment to a variable, or the value of a
+ * <code>print</code> or <code>return</code>, so nothing else in the
+ * statement runs before or after it. The callee must not be the caller,
+ * must be no bigger than {@link #small} nodes or called once in the whole
+ * program, and must not return from inside a loop; the caller stops
+ * growing at {@link #maxSize} nodes. Every argument must have the type of
+ * its parameter and every returned value the return type, as no
+ * conversions are done between them when the call is made.
+ *
+ * At each inlined call the parameters and locals of the callee become
+ * fresh locals of the caller, added to its {@link LocalScope} with names no
+ * source variable can have (<code>callee.site.name</code>), and the
+ * arguments are assigned to them in order. A parameter the callee never
+ * assigns or takes the address of is not copied if its argument is a
+ * literal, or a local of the caller whose address is never taken: the
+ * argument is used in its place. A <code>return</code> assigns
+ * its value to the variable the call was assigned to, or to a fresh one
+ * for <code>print</code> and discarded values. A <code>return</code> with
+ * more of the callee after it sets a flag, and everything after the
+ * statement holding it runs only if the flag is clear. If the call is
+ * itself returned and the callee ends in a <code>return</code>, its
+ * returns become returns of the caller instead.
+ *
+ * Functions whose every call was inlined are dropped, but for
+ * <code>main</code>.
+ */
+public class Inliner {
+
+	/** Callees of at most this many nodes are inlined wherever they are called */
+	public int small = 40;
+	/** No more is inlined into a function once it has this many nodes */
+	public int maxSize = 2000;
+
+	private int inlined;
+
+	private Map<String, Summary> summaries;
+	private Map<String, Integer> calls; //call sites of each function in the program as parsed
+
+	/**
+	 * How many calls have been inlined so far.
+	 */
+	public int getInlined() {
+		return inlined;
+	}
+
+	/**
+	 * The program with calls inlined. The functions and scopes of
+	 * <code>program</code> are not changed, but the scopes of callers get
+	 * the locals of what is inlined into them.
+	 */
+	public FunctionListNode run(FunctionListNode program) {
+		summaries = new LinkedHashMap<String, Summary>();
+		calls = new HashMap<String, Integer>();
+		for (FunctionNode f : program.getFunctions()) {
+			Summary s = new Summary(f);
+			summaries.put(f.getFuncName(), s);
+			for (Map.Entry<String, Integer> c : s.calls.entrySet()) {
+				calls.merge(c.getKey(), c.getValue(), Integer::sum);
+			}
+		}
+
+		for (Summary s : calleesFirst()) {
+			FunctionNode f = s.function;
+			FunctionNode g = (FunctionNode) new Caller(s).run(f);
+			if (g != f) {
+				summaries.put(g.getFuncName(), new Summary(g));
+			}
+		}
+
+		Map<String, Integer> left = new HashMap<String, Integer>();
+		for (Summary s : summaries.values()) {
+			for (Map.Entry<String, Integer> c : s.calls.entrySet()) {
+				left.merge(c.getKey(), c.getValue(), Integer::sum);
+			}
+		}
+		List<FunctionNode> functions = new ArrayList<FunctionNode>(summaries.size());
+		for (Summary s : summaries.values()) {
+			String name = s.function.getFuncName();
+			if (name.equals("main") || !calls.containsKey(name) || left.containsKey(name)) {
+				functions.add(s.function);
+			}
+		}
+		return new FunctionListNode(functions);
+	}
+
+	/**
+	 * Every function, each after the functions it calls, except where calls
+	 * go round in a cycle.
+	 */
+	private List<Summary> calleesFirst() {
+		List<Summary> order = new ArrayList<Summary>(summaries.size());
+		Set<Summary> seen = Collections.newSetFromMap(new IdentityHashMap<Summary, Boolean>());
+		ArrayDeque<Summary> stack = new ArrayDeque<Summary>();
+		ArrayDeque<java.util.Iterator<String>> next = new ArrayDeque<java.util.Iterator<String>>();
+		for (Summary root : summaries.values()) {
+			if (!seen.add(root)) continue;
+			stack.push(root);
+			next.push(root.calls.keySet().iterator());
+			while (!stack.isEmpty()) {
+				if (next.peek().hasNext()) {
+					Summary callee = summaries.get(next.peek().next());
+					if (callee != null && seen.add(callee)) {
+						stack.push(callee);
+						next.push(callee.calls.keySet().iterator());
+					}
+				} else {
+					order.add(stack.pop());
+					next.pop();
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * What the inliner needs to know of a function: its size, what it calls,
+	 * and whether and how its returns can be inlined.
+	 */
+	private static class Summary {
+		final FunctionNode function;
+		final int size;
+		final Map<String, Integer> calls = new LinkedHashMap<String, Integer>();
+		/** Returns with more of the function after them */
+		final Set<ReturnNode> early = Collections.newSetFromMap(new IdentityHashMap<ReturnNode, Boolean>());
+		/** Variables assigned or read into, and variables whose address is taken */
+		final Set<SymbolTableEntry> assigned = Collections.newSetFromMap(new IdentityHashMap<SymbolTableEntry, Boolean>());
+		final Set<SymbolTableEntry> addressed = Collections.newSetFromMap(new IdentityHashMap<SymbolTableEntry, Boolean>());
+		boolean inlinable = true;
+		boolean endsInReturn;
+
+		Summary(FunctionNode f) {
+			function = f;
+			size = new Scan(this).run(f.getFuncBody());
+			scanReturns();
+		}
+
+		/**
+		 * Find the early returns, and any that keep the function from being
+		 * inlined, walking the statements with a stack of lists and whether
+		 * each is the last thing the function does or in a loop.
+		 */
+		private void scanReturns() {
+			final int TAIL = 1, LOOP = 2;
+			Scope.Type returnType = null;
+			List<StatementNode> body = function.getFuncBody().getStatements();
+			endsInReturn = !body.isEmpty() && body.get(body.size() - 1) instanceof ReturnNode;
+
+			ArrayDeque<StatementListNode> lists = new ArrayDeque<StatementListNode>();
+			ArrayDeque<Integer> flags = new ArrayDeque<Integer>();
+			lists.push(function.getFuncBody());
+			flags.push(TAIL);
+			while (!lists.isEmpty()) {
+				List<StatementNode> list = lists.pop().getStatements();
+				int f = flags.pop();
+				int i = 0;
+				for (StatementNode s : list) {
+					boolean tail = ((f & TAIL) != 0) && (++i == list.size());
+					if (s instanceof ReturnNode) {
+						ReturnNode r = (ReturnNode) s;
+						if ((f & LOOP) != 0) inlinable = false;
+						if (!tail) early.add(r);
+						if (returnType == null) returnType = r.getFuncSymbol().getReturnType();
+						if (r.getRetExpr() != null && !returnType.equals(typeOf(r.getRetExpr()))) inlinable = false;
+					} else if (s instanceof IfStatementNode) {
+						IfStatementNode n = (IfStatementNode) s;
+						lists.push(n.getThenBlock());
+						flags.push(tail ? f : (f & ~TAIL));
+						if (n.getElseBlock() != null) {
+							lists.push(n.getElseBlock());
+							flags.push(tail ? f : (f & ~TAIL));
+						}
+					} else if (s instanceof WhileNode) {
+						lists.push(((WhileNode) s).getSlist());
+						flags.push(LOOP);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The type of the value of <code>expr</code>, which for a cast is the type
+	 * cast to.
+	 */
+	static Scope.Type typeOf(ExpressionNode expr) {
+		return (expr instanceof CastExprNode) ? ((CastExprNode) expr).getCastType() : expr.getType();
+	}
+
+	/**
+	 * Rewrites one function, inlining the calls it can.
+	 */
+	private class Caller extends ASTRewriter {
+
+		private final Summary caller;
+		private final LocalScope scope;
+		private int size;
+		private int sites;
+
+		Caller(Summary s) {
+			caller = s;
+			scope = s.function.getScope();
+			size = s.size;
+		}
+
+		@Override
+		protected ASTNode postprocess(StatementListNode node, List<ASTNode> statements) {
+			List<ASTNode> list = new ArrayList<ASTNode>(statements);
+			for (int i = 0; i < list.size(); i++) {
+				StatementListNode body = inline(list.get(i));
+				if (body != null) {
+					list.set(i, body);
+				}
+			}
+			return super.postprocess(node, list);
+		}
+
+		/**
+		 * The statements <code>s</code> becomes with its call inlined, or null
+		 * if it has no call that can be.
+		 */
+		private StatementListNode inline(ASTNode s) {
+			ExpressionNode value = null;
+			if (s instanceof CallNode) value = (CallNode) s;
+			if (s instanceof AssignNode && ((AssignNode) s).getLeft() instanceof VarNode) value = (ExpressionNode) ((AssignNode) s).getRight();
+			if (s instanceof WriteNode) value = ((WriteNode) s).getWriteExpr();
+			if (s instanceof ReturnNode) value = ((ReturnNode) s).getRetExpr();
+			if (!(value instanceof CallNode)) return null;
+
+			CallNode call = (CallNode) value;
+			Summary callee = summaries.get(call.getFuncName());
+			if (!worthInlining(call, callee)) return null;
+			size += callee.size;
+			inlined++;
+			Expansion e = new Expansion(callee, scope, call.getFuncName() + "." + (++sites));
+
+			List<StatementNode> list = new ArrayList<StatementNode>();
+			int i = 0;
+			for (SymbolTableEntry param : parameters(callee.function.getScope())) {
+				ExpressionNode arg = call.getArgs().get(i++);
+				if (substitutable(arg) && !callee.assigned.contains(param) && !callee.addressed.contains(param)) {
+					e.substitute(param, arg);
+				} else {
+					list.add(new AssignNode(e.var(param), arg));
+				}
+			}
+			if (s instanceof ReturnNode && callee.endsInReturn) {
+				e.returnTo(((ReturnNode) s).getFuncSymbol());
+				list.addAll(e.body());
+				return new StatementListNode(list);
+			}
+
+			Scope.Type type = call.ste.getReturnType();
+			VarNode result = null;
+			if (s instanceof AssignNode) {
+				result = (VarNode) ((AssignNode) s).getLeft();
+			} else if (type.type != Scope.InnerType.VOID) {
+				result = e.temp(type, "$return");
+			}
+			e.assignTo(result);
+			list.addAll(e.body());
+			if (s instanceof WriteNode) list.add(new WriteNode(result));
+			if (s instanceof ReturnNode) list.add(new ReturnNode(result, ((ReturnNode) s).getFuncSymbol()));
+			return new StatementListNode(list);
+		}
+
+		/**
+		 * Whether <code>arg</code> can stand for a parameter the callee only
+		 * reads: a literal, or a local of the caller that nothing can change
+		 * behind its back while the callee runs.
+		 */
+		private boolean substitutable(ExpressionNode arg) {
+			if (arg instanceof IntLitNode || arg instanceof FloatLitNode) return true;
+			if (!(arg instanceof VarNode)) return false;
+			SymbolTableEntry ste = ((VarNode) arg).getSymbol();
+			return ste.isLocal() && !caller.addressed.contains(ste);
+		}
+
+		private boolean worthInlining(CallNode call, Summary callee) {
+			if (callee == null || !callee.inlinable) return false;
+			String name = callee.function.getFuncName();
+			if (name.equals(scope.getName()) || name.equals("main")) return false;
+			if (callee.size > small && calls.get(name) != 1) return false;
+			if (size + callee.size > maxSize) return false;
+			List<Scope.Type> types = call.ste.getArgTypes();
+			if (types.size() != call.getArgs().size()) return false;
+			for (int i = 0; i < types.size(); i++) {
+				if (!types.get(i).equals(typeOf(call.getArgs().get(i)))) return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The parameters of a function in the order they are passed. They are
+	 * declared last first, so the first has the highest frame offset.
+	 */
+	static List<SymbolTableEntry> parameters(LocalScope scope) {
+		List<SymbolTableEntry> params = new ArrayList<SymbolTableEntry>();
+		for (SymbolTableEntry ste : scope.getEntries()) {
+			if (ste.getAddress() > 0) params.add(ste);
+		}
+		params.sort((a, b) -> Integer.compare(b.getAddress(), a.getAddress()));
+		return params;
+	}
+
+	/**
+	 * The body of a callee rewritten to run in place of one call: its
+	 * variables replaced by locals of the caller, and its returns by
+	 * assignments to where the value goes.
+	 */
+	private static class Expansion extends ASTRewriter {
+
+		private final Summary callee;
+		private final LocalScope scope;
+		private final String prefix;
+		private final Map<SymbolTableEntry, SymbolTableEntry> locals = new IdentityHashMap<SymbolTableEntry, SymbolTableEntry>();
+		private final Map<SymbolTableEntry, ExpressionNode> substituted = new IdentityHashMap<SymbolTableEntry, ExpressionNode>();
+
+		private FunctionSymbolTableEntry returnTo; //the caller, if returns stay returns
+		private VarNode result; //where returned values go otherwise, or null
+		private VarNode returned; //set by early returns, or null if there are none
+		/** Rewritten statements holding a return that sets {@link #returned} */
+		private final Set<ASTNode> returning = Collections.newSetFromMap(new IdentityHashMap<ASTNode, Boolean>());
+
+		Expansion(Summary callee, LocalScope scope, String prefix) {
+			this.callee = callee;
+			this.scope = scope;
+			this.prefix = prefix;
+		}
+
+		/**
+		 * Use <code>arg</code> itself wherever the callee reads
+		 * <code>param</code>.
+		 */
+		void substitute(SymbolTableEntry param, ExpressionNode arg) {
+			substituted.put(param, arg);
+		}
+
+		void returnTo(FunctionSymbolTableEntry caller) {
+			returnTo = caller;
+		}
+
+		void assignTo(VarNode result) {
+			this.result = result;
+			if (!callee.early.isEmpty()) {
+				returned = temp(Scope.Type.of(Scope.InnerType.INT), "$returned");
+			}
+		}
+
+		/**
+		 * The statements to run in place of the call, after the arguments
+		 * have been assigned.
+		 */
+		List<StatementNode> body() {
+			List<StatementNode> list = new ArrayList<StatementNode>();
+			if (returned != null) {
+				list.add(new AssignNode(returned, new IntLitNode("0")));
+			}
+			list.addAll(((StatementListNode) run(callee.function.getFuncBody())).getStatements());
+			return list;
+		}
+
+		/**
+		 * The caller's local standing for <code>ste</code> of the callee.
+		 */
+		VarNode var(SymbolTableEntry ste) {
+			SymbolTableEntry local = locals.get(ste);
+			if (local == null) {
+				local = temp(ste.getType(), "." + ste.getName()).getSymbol();
+				locals.put(ste, local);
+			}
+			return new VarNode(local);
+		}
+
+		VarNode temp(Scope.Type type, String suffix) {
+			String name = prefix + suffix;
+			scope.addSymbol(type, name);
+			return new VarNode(scope.getSymbolTableEntry(name));
+		}
+
+		@Override
+		protected ASTNode postprocess(VarNode node) {
+			ExpressionNode arg = substituted.get(node.getSymbol());
+			if (arg != null) return arg;
+			return node.getSymbol().isLocal() ? var(node.getSymbol()) : node;
+		}
+
+		@Override
+		protected ASTNode postprocess(ReturnNode node, ASTNode retExpr) {
+			if (returnTo != null) return new ReturnNode((ExpressionNode) retExpr, returnTo);
+
+			List<StatementNode> list = new ArrayList<StatementNode>();
+			if (retExpr != null && result != null) {
+				list.add(new AssignNode(result, (ExpressionNode) retExpr));
+			}
+			StatementListNode s = new StatementListNode(list);
+			if (callee.early.contains(node)) {
+				list.add(new AssignNode(returned, new IntLitNode("1")));
+				returning.add(s);
+			}
+			return s;
+		}
+
+		@Override
+		protected ASTNode postprocess(IfStatementNode node, ASTNode cond, ASTNode tlist, ASTNode elist) {
+			ASTNode s = super.postprocess(node, cond, tlist, elist);
+			if (returning.contains(tlist) || returning.contains(elist)) returning.add(s);
+			return s;
+		}
+
+		/**
+		 * Nothing after a return runs. After a statement that may have
+		 * returned, the rest of the list runs only if it did not.
+		 */
+		@Override
+		protected ASTNode postprocess(StatementListNode node, List<ASTNode> statements) {
+			if (returnTo != null) return super.postprocess(node, statements);
+
+			StatementNode[] old = node.getStatements().toArray(new StatementNode[0]);
+			ArrayDeque<ASTNode> rest = new ArrayDeque<ASTNode>();
+			boolean flagged = false;
+			for (int i = old.length - 1; i >= 0; i--) {
+				ASTNode s = statements.get(i);
+				if (old[i] instanceof ReturnNode) {
+					rest.clear();
+				} else if (returning.contains(s) && !rest.isEmpty()) {
+					List<StatementNode> guarded = new ArrayList<StatementNode>();
+					for (ASTNode r : rest) {
+						guarded.addAll(statements(r));
+					}
+					rest.clear();
+					rest.push(new IfStatementNode(new CondNode(returned, new IntLitNode("0"), "=="),
+							new StatementListNode(guarded), null));
+				}
+				flagged |= returning.contains(s);
+				rest.push(s);
+			}
+
+			List<StatementNode> list = new ArrayList<StatementNode>();
+			for (ASTNode r : rest) {
+				list.addAll(statements(r));
+			}
+			StatementListNode s = new StatementListNode(list);
+			if (flagged) returning.add(s);
+			return s;
+		}
+
+		private static List<StatementNode> statements(ASTNode s) {
+			if (s instanceof StatementListNode) return ((StatementListNode) s).getStatements();
+			return Collections.singletonList((StatementNode) s);
+		}
+	}
+
+	/**
+	 * Counts the nodes of a function and fills in what its {@link Summary}
+	 * needs to know of the calls and variables in it.
+	 */
+	private static class Scan extends AbstractASTVisitor<Integer> {
+
+		private final Summary summary;
+
+		Scan(Summary summary) {
+			this.summary = summary;
+		}
+
+		private static int n(Integer size) {
+			return (size == null) ? 0 : size;
+		}
+
+		private static int sum(List<Integer> sizes) {
+			int n = 0;
+			for (Integer s : sizes) {
+				n += s;
+			}
+			return n;
+		}
+
+		@Override
+		protected Integer postprocess(VarNode node) {
+			return 1;
+		}
+
+		@Override
+		protected Integer postprocess(IntLitNode node) {
+			return 1;
+		}
+
+		@Override
+		protected Integer postprocess(FloatLitNode node) {
+			return 1;
+		}
+
+		@Override
+		protected Integer postprocess(BinaryOpNode node, Integer left, Integer right) {
+			return 1 + left + right;
+		}
+
+		@Override
+		protected Integer postprocess(CastExprNode node, Integer expr) {
+			return 1 + expr;
+		}
+
+		@Override
+		protected Integer postprocess(UnaryOpNode node, Integer expr) {
+			return 1 + expr;
+		}
+
+		@Override
+		protected Integer postprocess(AssignNode node, Integer left, Integer right) {
+			if (node.getLeft() instanceof VarNode) summary.assigned.add(((VarNode) node.getLeft()).getSymbol());
+			return 1 + left + right;
+		}
+
+		@Override
+		protected Integer postprocess(StatementListNode node, List<Integer> statements) {
+			return 1 + sum(statements);
+		}
+
+		@Override
+		protected Integer postprocess(ReadNode node, Integer var) {
+			summary.assigned.add(node.getVarNode().getSymbol());
+			return 1 + var;
+		}
+
+		@Override
+		protected Integer postprocess(WriteNode node, Integer writeExpr) {
+			return 1 + writeExpr;
+		}
+
+		@Override
+		protected Integer postprocess(CondNode node, Integer left, Integer right) {
+			return 1 + left + right;
+		}
+
+		@Override
+		protected Integer postprocess(IfStatementNode node, Integer cond, Integer tlist, Integer elist) {
+			return 1 + cond + tlist + n(elist);
+		}
+
+		@Override
+		protected Integer postprocess(WhileNode node, Integer cond, Integer slist) {
+			return 1 + cond + slist;
+		}
+
+		@Override
+		protected Integer postprocess(ReturnNode node, Integer retExpr) {
+			return 1 + n(retExpr);
+		}
+
+		@Override
+		protected Integer postprocess(FunctionNode node, Integer body) {
+			return 1 + body;
+		}
+
+		@Override
+		protected Integer postprocess(FunctionListNode node, List<Integer> functions) {
+			return 1 + sum(functions);
+		}
+
+		@Override
+		protected Integer postprocess(CallNode node, List<Integer> args) {
+			summary.calls.merge(node.getFuncName(), 1, Integer::sum);
+			return 1 + sum(args);
+		}
+
+		@Override
+		protected Integer postprocess(PtrDerefNode node, Integer expr) {
+			return 1 + expr;
+		}
+
+		@Override
+		protected Integer postprocess(AddrOfNode node, Integer expr) {
+			if (node.getExpr() instanceof VarNode) summary.addressed.add(((VarNode) node.getExpr()).getSymbol());
+			return 1 + expr;
+		}
+
+		@Override
+		protected Integer postprocess(MallocNode node, Integer arg) {
+			return 1 + arg;
+		}
+
+		@Override
+		protected Integer postprocess(FreeNode node, Integer arg) {
+			return 1 + arg;
+		}
+	}
+
+}
@@ -57,6 +57,16 @@ public class StatementListNode implements ASTNode {
 		statements.add(s);
 	}
 	
+	/**
+	 * A statement list node over a list the parser has already filled
+	 * in order. The list is used as is, not copied.
+	 * 
+	 * @param statements The statements
+	 */
+	public StatementListNode(List<StatementNode> statements) {
+		this.statements = statements;
+	}
+	
 	@Override
 	public <R> R accept(ASTVisitor<R> visitor) {
 		return visitor.visit(this);
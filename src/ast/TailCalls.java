@@ -0,0 +1,404 @@
+package ast;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ast.visitor.AbstractASTVisitor;
+import compiler.LocalScope;
+import compiler.Scope;
+import compiler.Scope.SymbolTableEntry;
+
+/**
+ * Makes calls whose value a function returns without the overhead of a
+ * call, so recursion that only ever returns what it recurses to runs in
+ * one frame instead of one per level.
+ *
+ * {@link #loop} turns a function's tail calls to itself into assignments
+ * of the arguments to its parameters, and its body into a loop that goes
+ * round again after them. A tail call is a <code>return</code> of a call,
+ * or a call that is the last thing a <code>void</code> function does, on a
+ * path to the end of the body that does not go through a loop. Statements
+ * after an <code>if</code> with an arm that always returns are moved into
+ * the other arm first, so that <code>if (n == 0) { return acc; } return
+ * f(n - 1, acc * n);</code> and its mirror image both qualify. Every
+ * argument must have the type of its parameter, as no conversions are
+ * done when a call is made. An argument is put in a temporary first if a
+ * later one reads the parameter it replaces.
+ *
+ * {@link #jump} marks each call that is still returned, to the function
+ * itself or to another, as a {@link CallNode#isTailCall tail call}, for
+ * which the code generator stores the arguments over the caller's own
+ * parameters and jumps to the callee from the caller's epilogue, so the
+ * callee returns straight to the caller's caller. That needs the callee
+ * to take no more arguments than the caller, and to return the same type.
+ * It must run after every other pass, as a tail call moved anywhere else
+ * would no longer be one.
+ *
+ * Neither is done to a function that takes the address of a parameter or
+ * local, which a call to it may still be using when its frame is reused.
+ */
+public class TailCalls {
+
+	/** Where the statements after an <code>if</code> go when moved into it */
+	private enum Rest { THEN, ELSE, DEAD }
+
+	private int loops;
+	private int jumps;
+
+	/**
+	 * How many tail calls to the function making them have been turned into
+	 * loops so far.
+	 */
+	public int getLoops() {
+		return loops;
+	}
+
+	/**
+	 * How many calls have been marked as tail calls so far.
+	 */
+	public int getJumps() {
+		return jumps;
+	}
+
+	/**
+	 * <code>f</code> with its tail calls to itself made into a loop, or
+	 * <code>f</code> itself if it has none that can be.
+	 */
+	public FunctionNode loop(FunctionNode f) {
+		if (addressesLocals(f)) return f;
+		Loop loop = new Loop(f);
+		if (loop.calls.isEmpty()) return f;
+		StatementListNode body = (StatementListNode) loop.run(f.getFuncBody());
+		loops += loop.calls.size();
+
+		List<StatementNode> list = new ArrayList<StatementNode>();
+		if (loop.again == null) {
+			//every way through the body returns or goes round again
+			list.add(new WhileNode(new CondNode(new IntLitNode("1"), new IntLitNode("1"), "=="), body));
+		} else {
+			List<StatementNode> statements = new ArrayList<StatementNode>();
+			statements.add(new AssignNode(loop.again, new IntLitNode("0")));
+			statements.addAll(body.getStatements());
+			list.add(new AssignNode(loop.again, new IntLitNode("1")));
+			list.add(new WhileNode(new CondNode(loop.again, new IntLitNode("0"), "!="), new StatementListNode(statements)));
+		}
+		return new FunctionNode(new StatementListNode(list), f.getFuncName(), f.getScope());
+	}
+
+	/**
+	 * <code>f</code> with the calls it returns marked as tail calls where
+	 * they can reuse its frame, or <code>f</code> itself if none can.
+	 */
+	public FunctionNode jump(FunctionNode f) {
+		if (addressesLocals(f)) return f;
+		final int params = Inliner.parameters(f.getScope()).size();
+		return (FunctionNode) new ASTRewriter() {
+			@Override
+			protected ASTNode postprocess(ReturnNode node, ASTNode retExpr) {
+				if (retExpr instanceof CallNode) {
+					CallNode call = (CallNode) retExpr;
+					if (call.getArgs().size() <= params && call.ste.getReturnType().equals(node.getFuncSymbol().getReturnType())) {
+						jumps++;
+						return new ReturnNode(new CallNode(call.ste, call.getArgs(), true), node.getFuncSymbol());
+					}
+				}
+				return super.postprocess(node, retExpr);
+			}
+		}.run(f);
+	}
+
+	/**
+	 * Whether <code>f</code> takes the address of any of its parameters or
+	 * locals.
+	 */
+	public static boolean addressesLocals(FunctionNode f) {
+		final boolean[] found = new boolean[1];
+		new AbstractASTVisitor<Void>() {
+			@Override
+			protected Void postprocess(AddrOfNode node, Void expr) {
+				if (node.getExpr() instanceof VarNode && ((VarNode) node.getExpr()).getSymbol().isLocal()) found[0] = true;
+				return null;
+			}
+		}.run(f);
+		return found[0];
+	}
+
+	/**
+	 * The variables <code>expr</code> reads.
+	 */
+	private static Set<SymbolTableEntry> reads(ExpressionNode expr) {
+		final Set<SymbolTableEntry> vars = Collections.newSetFromMap(new IdentityHashMap<SymbolTableEntry, Boolean>());
+		new AbstractASTVisitor<Void>() {
+			@Override
+			protected Void postprocess(VarNode node) {
+				vars.add(node.getSymbol());
+				return null;
+			}
+		}.run(expr);
+		return vars;
+	}
+
+	/**
+	 * The statement lists, in a function body, that always end in a
+	 * <code>return</code> of a value: they have one, or an <code>if</code>
+	 * both arms of which are such lists. A <code>return</code> without a
+	 * value does not count, as it does not leave the function.
+	 */
+	private static class Leaving extends AbstractASTVisitor<Boolean> {
+
+		final Set<StatementListNode> lists = Collections.newSetFromMap(new IdentityHashMap<StatementListNode, Boolean>());
+
+		@Override
+		protected Boolean postprocess(ReturnNode node, Boolean retExpr) {
+			return node.getRetExpr() != null;
+		}
+
+		@Override
+		protected Boolean postprocess(IfStatementNode node, Boolean cond, Boolean tlist, Boolean elist) {
+			return tlist == Boolean.TRUE && elist == Boolean.TRUE;
+		}
+
+		@Override
+		protected Boolean postprocess(StatementListNode node, List<Boolean> statements) {
+			if (!statements.contains(Boolean.TRUE)) return false;
+			lists.add(node);
+			return true;
+		}
+	}
+
+	/**
+	 * Rewrites the body of one function for {@link #loop}: finds its tail
+	 * calls to itself and the <code>if</code>s statements have to be moved
+	 * into first, then replaces the calls and moves the statements as the
+	 * lists holding them are rebuilt.
+	 */
+	private static class Loop extends ASTRewriter {
+
+		private final FunctionNode function;
+		private final List<SymbolTableEntry> params;
+		private final Set<StatementListNode> leaving;
+
+		/** The tail calls, as <code>return</code>s or call statements */
+		final Set<StatementNode> calls = Collections.newSetFromMap(new IdentityHashMap<StatementNode, Boolean>());
+		/** <code>if</code>s the statements after which are moved into them */
+		private final Map<IfStatementNode, Rest> splits = new IdentityHashMap<IfStatementNode, Rest>();
+		/** The rewritten <code>if</code>s that statements have been moved into */
+		private final Map<IfStatementNode, Rest> split = new IdentityHashMap<IfStatementNode, Rest>();
+
+		/** Set when going round again, or null if the body always does unless it returns */
+		VarNode again;
+		private final Map<SymbolTableEntry, VarNode> temps = new IdentityHashMap<SymbolTableEntry, VarNode>();
+
+		Loop(FunctionNode f) {
+			function = f;
+			params = Inliner.parameters(f.getScope());
+			Leaving l = new Leaving();
+			l.run(f.getFuncBody());
+			leaving = l.lists;
+			scan();
+			if (!calls.isEmpty() && !leaving.contains(f.getFuncBody())) {
+				again = temp(Scope.Type.of(Scope.InnerType.INT), "tail$again");
+			}
+		}
+
+		/**
+		 * Find the tail calls, walking the lists that end the function with a
+		 * stack. The arms of an <code>if</code> that statements are moved
+		 * into are walked with those statements after them.
+		 */
+		private void scan() {
+			ArrayDeque<List<StatementNode>> lists = new ArrayDeque<List<StatementNode>>();
+			lists.push(function.getFuncBody().getStatements());
+			while (!lists.isEmpty()) {
+				List<StatementNode> list = lists.pop();
+				for (int i = 0; i < list.size(); i++) {
+					StatementNode s = list.get(i);
+					boolean last = i == list.size() - 1;
+					if (isSelfCall(s, last)) {
+						calls.add(s);
+						break;
+					}
+					if (s instanceof ReturnNode && ((ReturnNode) s).getRetExpr() != null) break;
+					if (!(s instanceof IfStatementNode)) continue;
+
+					IfStatementNode n = (IfStatementNode) s;
+					List<StatementNode> tlist = new ArrayList<StatementNode>(n.getThenBlock().getStatements());
+					List<StatementNode> elist = new ArrayList<StatementNode>();
+					if (n.getElseBlock() != null) elist.addAll(n.getElseBlock().getStatements());
+					if (!last) {
+						boolean t = leaving.contains(n.getThenBlock());
+						boolean e = n.getElseBlock() != null && leaving.contains(n.getElseBlock());
+						if (!t && !e) continue;
+						Rest rest = (t && e) ? Rest.DEAD : (t ? Rest.ELSE : Rest.THEN);
+						splits.put(n, rest);
+						List<StatementNode> after = list.subList(i + 1, list.size());
+						if (rest == Rest.THEN) tlist.addAll(after);
+						if (rest == Rest.ELSE) elist.addAll(after);
+					}
+					lists.push(tlist);
+					lists.push(elist);
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Whether <code>s</code> is a call to the function itself that can
+		 * be made by going round the loop: returned, or the last thing a
+		 * <code>void</code> function does, with arguments of the types of the
+		 * parameters.
+		 */
+		private boolean isSelfCall(StatementNode s, boolean last) {
+			ExpressionNode value = null;
+			if (s instanceof ReturnNode) value = ((ReturnNode) s).getRetExpr();
+			if (s instanceof CallNode && last) value = (CallNode) s;
+			if (!(value instanceof CallNode)) return false;
+			CallNode call = (CallNode) value;
+			if (!call.getFuncName().equals(function.getFuncName())) return false;
+			if (s instanceof CallNode && call.getType().type != Scope.InnerType.VOID) return false;
+			if (call.getArgs().size() != params.size()) return false;
+			for (int i = 0; i < params.size(); i++) {
+				if (!params.get(i).getType().equals(Inliner.typeOf(call.getArgs().get(i)))) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Rebuild a list from its last statement back, so that what follows
+		 * a statement is known when it is reached: dropped after a tail call,
+		 * or moved into an <code>if</code> it goes in.
+		 */
+		@Override
+		protected ASTNode postprocess(StatementListNode node, List<ASTNode> statements) {
+			List<StatementNode> original = node.getStatements();
+			boolean touched = false;
+			for (StatementNode s : original) {
+				touched |= calls.contains(s) || splits.containsKey(s);
+			}
+			if (!touched) return super.postprocess(node, statements);
+
+			ArrayDeque<StatementNode> tail = new ArrayDeque<StatementNode>();
+			for (int i = original.size() - 1; i >= 0; i--) {
+				StatementNode s = original.get(i);
+				ASTNode r = statements.get(i);
+				if (calls.contains(s)) {
+					tail.clear();
+					r = goRoundAgain(r);
+				} else if (splits.containsKey(s)) {
+					r = moveInto((IfStatementNode) r, splits.get(s), new ArrayList<StatementNode>(tail));
+					tail.clear();
+				}
+				if (r instanceof StatementListNode) {
+					List<StatementNode> list = ((StatementListNode) r).getStatements();
+					for (int j = list.size() - 1; j >= 0; j--) {
+						tail.push(list.get(j));
+					}
+				} else {
+					tail.push((StatementNode) r);
+				}
+			}
+			return new StatementListNode(new ArrayList<StatementNode>(tail));
+		}
+
+		/**
+		 * The statements making the (rewritten) tail call <code>s</code> by
+		 * going round the loop.
+		 */
+		private StatementListNode goRoundAgain(ASTNode s) {
+			CallNode call = (CallNode) ((s instanceof ReturnNode) ? ((ReturnNode) s).getRetExpr() : s);
+			List<ExpressionNode> args = call.getArgs();
+			List<StatementNode> list = new ArrayList<StatementNode>();
+			List<StatementNode> after = new ArrayList<StatementNode>();
+			for (int i = 0; i < args.size(); i++) {
+				SymbolTableEntry param = params.get(i);
+				ExpressionNode arg = args.get(i);
+				if (arg instanceof VarNode && ((VarNode) arg).getSymbol() == param) continue;
+				boolean readLater = false;
+				for (int k = i + 1; k < args.size() && !readLater; k++) {
+					readLater = reads(args.get(k)).contains(param);
+				}
+				if (readLater) {
+					VarNode temp = temps.get(param);
+					if (temp == null) {
+						temp = temp(param.getType(), "tail$" + param.getName());
+						temps.put(param, temp);
+					}
+					list.add(new AssignNode(temp, arg));
+					after.add(new AssignNode(new VarNode(param), temp));
+				} else {
+					list.add(new AssignNode(new VarNode(param), arg));
+				}
+			}
+			list.addAll(after);
+			if (again != null) list.add(new AssignNode(again, new IntLitNode("1")));
+			return new StatementListNode(list);
+		}
+
+		/**
+		 * The (rewritten) <code>if</code> <code>n</code> with the statements
+		 * after it moved into an arm. An arm whose last statement is an
+		 * <code>if</code> they have already been moved into gets them at the
+		 * end of that one's arm instead, and so on down, so they still come
+		 * last.
+		 */
+		private IfStatementNode moveInto(IfStatementNode n, Rest rest, List<StatementNode> after) {
+			if (rest == Rest.DEAD) {
+				split.put(n, rest);
+				return n;
+			}
+			ArrayDeque<IfStatementNode> ifs = new ArrayDeque<IfStatementNode>();
+			ArrayDeque<Rest> arms = new ArrayDeque<Rest>();
+			IfStatementNode at = n;
+			Rest arm = rest;
+			StatementListNode list;
+			while (true) {
+				ifs.push(at);
+				arms.push(arm);
+				list = arm(at, arm);
+				List<StatementNode> s = list.getStatements();
+				StatementNode last = s.isEmpty() ? null : s.get(s.size() - 1);
+				Rest r = (last instanceof IfStatementNode) ? split.get(last) : null;
+				if (r == Rest.DEAD) return n; //what is after it never runs
+				if (r == null) break;
+				at = (IfStatementNode) last;
+				arm = r;
+			}
+
+			List<StatementNode> statements = new ArrayList<StatementNode>(list.getStatements());
+			statements.addAll(after);
+			list = new StatementListNode(statements);
+			IfStatementNode built = null;
+			while (!ifs.isEmpty()) {
+				at = ifs.pop();
+				arm = arms.pop();
+				if (built != null) {
+					statements = new ArrayList<StatementNode>(arm(at, arm).getStatements());
+					statements.set(statements.size() - 1, built);
+					list = new StatementListNode(statements);
+				}
+				built = new IfStatementNode(at.getCondExpr(),
+						(arm == Rest.THEN) ? list : at.getThenBlock(),
+						(arm == Rest.ELSE) ? list : at.getElseBlock());
+				split.put(built, arm);
+			}
+			return built;
+		}
+
+		private static StatementListNode arm(IfStatementNode n, Rest arm) {
+			if (arm == Rest.THEN) return n.getThenBlock();
+			return (n.getElseBlock() != null) ? n.getElseBlock() : new StatementListNode();
+		}
+
+		private VarNode temp(Scope.Type type, String name) {
+			LocalScope scope = function.getScope();
+			scope.addSymbol(type, name);
+			return new VarNode(scope.getSymbolTableEntry(name));
+		}
+	}
+
+}
@@ -2,7 +2,7 @@ package ast;
 
 import ast.visitor.ASTVisitor;
 import compiler.Scope.SymbolTableEntry;
-import compiler.Compiler;
+import compiler.CompilationContext;
 
 /**
  * A node for variables
@@ -15,9 +15,19 @@ public class VarNode extends ExpressionNode {
 	private String id;
 	private SymbolTableEntry ste;
 	
-	public VarNode(String id) {
+	public VarNode(String id, CompilationContext ctx) {
 		this.setId(id);
-		setSymbol(Compiler.symbolTable.getSymbolTableEntry(id));
+		setSymbol(ctx.getSymbolTable().getSymbolTableEntry(id));
+		setType(ste.getType());
+	}
+
+	/**
+	 * A variable node for an entry that has already been looked up, e.g.
+	 * when a {@link CompactFunction} is inflated after its scope has closed.
+	 */
+	VarNode(SymbolTableEntry ste) {
+		this.setId(ste.getName());
+		setSymbol(ste);
 		setType(ste.getType());
 	}
 
@@ -1,7 +1,10 @@
 package ast.visitor;
 
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.RandomAccess;
 
 import ast.ASTNode;
 import ast.AddrOfNode;
@@ -46,15 +49,303 @@ import ast.FreeNode;
  * need to change <code>preprocess</code>). More complicated visitors may need to
  * override both (e.g., to generate labels before visiting children).
  * 
+ * {@link #run} walks the tree with an explicit stack rather than by recursion,
+ * so trees of any depth can be visited, and the results of a node's children
+ * are kept in one array shared by the whole walk. The lists passed to the
+ * <code>postprocess</code> methods for statement lists, function lists and
+ * calls are views of that array: they are only valid during the call, and must
+ * be copied if they are to be kept. The <code>visit</code> methods are the
+ * same walk done recursively, for when a node is visited with
+ * <code>accept</code>.
+ * 
  * @param <R> The data type returned by the visitor. For code generation, this is {@link CodeObject}
  */
 public abstract class AbstractASTVisitor<R> implements ASTVisitor<R> {
 
+	/** Node kinds the iterative walk knows the children of, leaves first */
+	private static final int OTHER = 0, VAR = 1, INT_LIT = 2, FLOAT_LIT = 3, BINARY_OP = 4, CAST_EXPR = 5,
+			UNARY_OP = 6, ASSIGN = 7, STATEMENT_LIST = 8, READ = 9, WRITE = 10, COND = 11, IF = 12,
+			WHILE = 13, RETURN = 14, FUNCTION = 15, FUNCTION_LIST = 16, CALL = 17, PTR_DEREF = 18,
+			ADDR_OF = 19, MALLOC = 20, FREE = 21;
+	private static final int LAST_LEAF = FLOAT_LIT;
+
+	/**
+	 * The kind of a node class, most common first. Any other class, including
+	 * subclasses of the node classes, is visited with <code>accept</code>.
+	 */
+	private static int kindOf(Class<?> c) {
+		if (c == VarNode.class) return VAR;
+		if (c == IntLitNode.class) return INT_LIT;
+		if (c == BinaryOpNode.class) return BINARY_OP;
+		if (c == AssignNode.class) return ASSIGN;
+		if (c == StatementListNode.class) return STATEMENT_LIST;
+		if (c == CondNode.class) return COND;
+		if (c == IfStatementNode.class) return IF;
+		if (c == WhileNode.class) return WHILE;
+		if (c == FloatLitNode.class) return FLOAT_LIT;
+		if (c == PtrDerefNode.class) return PTR_DEREF;
+		if (c == CallNode.class) return CALL;
+		if (c == ReturnNode.class) return RETURN;
+		if (c == WriteNode.class) return WRITE;
+		if (c == ReadNode.class) return READ;
+		if (c == CastExprNode.class) return CAST_EXPR;
+		if (c == UnaryOpNode.class) return UNARY_OP;
+		if (c == AddrOfNode.class) return ADDR_OF;
+		if (c == FunctionNode.class) return FUNCTION;
+		if (c == FunctionListNode.class) return FUNCTION_LIST;
+		if (c == MallocNode.class) return MALLOC;
+		if (c == FreeNode.class) return FREE;
+		return OTHER;
+	}
+
+	private Walk idle; //kept between runs so its stacks are only grown once
+
 	protected AbstractASTVisitor() { }
 
 	@Override
 	public R run(ASTNode node) {
-		return node.accept(this);
+		Walk w = (idle != null) ? idle : new Walk();
+		idle = null; //a hook that calls run again gets a walk of its own
+		R result = w.walk(node);
+		idle = w;
+		return result;
+	}
+
+	/**
+	 * The state of one iterative walk: a stack of work, and a stack of the
+	 * results of the children of the nodes being visited.
+	 *
+	 * Entering a node runs its <code>preprocess</code> and replaces it on the
+	 * work stack with an exit entry under its children, first child on top.
+	 * By the time the exit entry is reached again, the children's results are
+	 * on top of the result stack, in order, for its <code>postprocess</code>.
+	 */
+	private final class Walk {
+
+		private static final int EXIT = 32; //added to the kind of an exit entry
+
+		private Object[] work = new Object[64]; //Object, not ASTNode, so stores need no interface type check
+		private int[] workKinds = new int[64];
+		private int[] bases = new int[64]; //for exit entries, where the node's child results start
+		private int top = 0;
+
+		private Object[] results = new Object[64];
+		private int count = 0;
+		private final Results view = new Results();
+
+		R walk(ASTNode root) {
+			push(root);
+			while (top > 0) {
+				int t = --top;
+				Object node = work[t];
+				int kind = workKinds[t];
+				work[t] = null;
+				if (kind >= EXIT) {
+					int base = bases[t];
+					R r = post(kind - EXIT, node, base);
+					while (count > base) {
+						results[--count] = null;
+					}
+					add(r);
+				} else if (kind == OTHER) {
+					add(((ASTNode) node).accept(AbstractASTVisitor.this));
+				} else if (kind <= LAST_LEAF) { //no children, so no exit entry
+					pre(kind, node);
+					add(post(kind, node, count));
+				} else {
+					pre(kind, node);
+					enter(kind, node);
+				}
+			}
+			@SuppressWarnings("unchecked")
+			R r = (R) results[0];
+			results[0] = null;
+			count = 0;
+			return r;
+		}
+
+		/**
+		 * Push the exit entry for a node that has just been preprocessed, then
+		 * its children, last child first. An absent else block or return value
+		 * is not pushed, and its result is null.
+		 */
+		private void enter(int kind, Object node) {
+			grow(top + 1);
+			work[top] = node;
+			workKinds[top] = kind + EXIT;
+			bases[top++] = count;
+			int from = top;
+			switch (kind) {
+			case BINARY_OP : push(((BinaryOpNode) node).getRight()); push(((BinaryOpNode) node).getLeft()); break;
+			case CAST_EXPR : push(((CastExprNode) node).getExpr()); break;
+			case UNARY_OP : push(((UnaryOpNode) node).getExpr()); break;
+			case ASSIGN : push(((AssignNode) node).getRight()); push(((AssignNode) node).getLeft()); break;
+			case READ : push(((ReadNode) node).getVarNode()); break;
+			case WRITE : push(((WriteNode) node).getWriteExpr()); break;
+			case COND : push(((CondNode) node).getRight()); push(((CondNode) node).getLeft()); break;
+			case IF :
+				IfStatementNode ifs = (IfStatementNode) node;
+				if (ifs.getElseBlock() != null) {
+					push(ifs.getElseBlock());
+				}
+				push(ifs.getThenBlock());
+				push(ifs.getCondExpr());
+				break;
+			case WHILE : push(((WhileNode) node).getSlist()); push(((WhileNode) node).getCond()); break;
+			case RETURN :
+				if (((ReturnNode) node).getRetExpr() != null) {
+					push(((ReturnNode) node).getRetExpr());
+				}
+				break;
+			case FUNCTION : push(((FunctionNode) node).getFuncBody()); break;
+			case PTR_DEREF : push(((PtrDerefNode) node).getExpr()); break;
+			case ADDR_OF : push(((AddrOfNode) node).getExpr()); break;
+			case MALLOC : push(((MallocNode) node).getArg()); break;
+			case FREE : push(((FreeNode) node).getArg()); break;
+			case STATEMENT_LIST :
+				for (StatementNode n : ((StatementListNode) node).getStatements()) {
+					push(n);
+				}
+				reverse(from);
+				break;
+			case FUNCTION_LIST :
+				for (FunctionNode n : ((FunctionListNode) node).getFunctions()) {
+					push(n);
+				}
+				reverse(from);
+				break;
+			case CALL :
+				for (ExpressionNode n : ((CallNode) node).getArgs()) {
+					push(n);
+				}
+				reverse(from);
+				break;
+			}
+		}
+
+		private void push(ASTNode node) {
+			grow(top + 1);
+			work[top] = node;
+			workKinds[top++] = kindOf(node.getClass());
+		}
+
+		/**
+		 * Put the children of a list node, just pushed in order, the other way
+		 * round so the first is on top. The lists may be linked lists, so they
+		 * are iterated rather than indexed from the end.
+		 */
+		private void reverse(int from) {
+			for (int i = from, j = top - 1; i < j; i++, j--) {
+				Object n = work[i];
+				work[i] = work[j];
+				work[j] = n;
+				int k = workKinds[i];
+				workKinds[i] = workKinds[j];
+				workKinds[j] = k;
+			}
+		}
+
+		private void grow(int size) {
+			if (size > work.length) {
+				int n = work.length * 2;
+				work = Arrays.copyOf(work, n);
+				workKinds = Arrays.copyOf(workKinds, n);
+				bases = Arrays.copyOf(bases, n);
+			}
+		}
+
+		private void add(R result) {
+			if (count == results.length) {
+				results = Arrays.copyOf(results, count * 2);
+			}
+			results[count++] = result;
+		}
+
+		@SuppressWarnings("unchecked")
+		private R result(int base, int i) {
+			return (base + i < count) ? (R) results[base + i] : null;
+		}
+
+		private void pre(int kind, Object node) {
+			switch (kind) {
+			case VAR : preprocess((VarNode) node); break;
+			case INT_LIT : preprocess((IntLitNode) node); break;
+			case FLOAT_LIT : preprocess((FloatLitNode) node); break;
+			case BINARY_OP : preprocess((BinaryOpNode) node); break;
+			case CAST_EXPR : preprocess((CastExprNode) node); break;
+			case UNARY_OP : preprocess((UnaryOpNode) node); break;
+			case ASSIGN : preprocess((AssignNode) node); break;
+			case STATEMENT_LIST : preprocess((StatementListNode) node); break;
+			case READ : preprocess((ReadNode) node); break;
+			case WRITE : preprocess((WriteNode) node); break;
+			case COND : preprocess((CondNode) node); break;
+			case IF : preprocess((IfStatementNode) node); break;
+			case WHILE : preprocess((WhileNode) node); break;
+			case RETURN : preprocess((ReturnNode) node); break;
+			case FUNCTION : preprocess((FunctionNode) node); break;
+			case FUNCTION_LIST : preprocess((FunctionListNode) node); break;
+			case CALL : preprocess((CallNode) node); break;
+			case PTR_DEREF : preprocess((PtrDerefNode) node); break;
+			case ADDR_OF : preprocess((AddrOfNode) node); break;
+			case MALLOC : preprocess((MallocNode) node); break;
+			case FREE : preprocess((FreeNode) node); break;
+			}
+		}
+
+		private R post(int kind, Object node, int base) {
+			switch (kind) {
+			case VAR : return postprocess((VarNode) node);
+			case INT_LIT : return postprocess((IntLitNode) node);
+			case FLOAT_LIT : return postprocess((FloatLitNode) node);
+			case BINARY_OP : return postprocess((BinaryOpNode) node, result(base, 0), result(base, 1));
+			case CAST_EXPR : return postprocess((CastExprNode) node, result(base, 0));
+			case UNARY_OP : return postprocess((UnaryOpNode) node, result(base, 0));
+			case ASSIGN : return postprocess((AssignNode) node, result(base, 0), result(base, 1));
+			case STATEMENT_LIST : return postprocess((StatementListNode) node, view.of(base));
+			case READ : return postprocess((ReadNode) node, result(base, 0));
+			case WRITE : return postprocess((WriteNode) node, result(base, 0));
+			case COND : return postprocess((CondNode) node, result(base, 0), result(base, 1));
+			case IF : return postprocess((IfStatementNode) node, result(base, 0), result(base, 1), result(base, 2));
+			case WHILE : return postprocess((WhileNode) node, result(base, 0), result(base, 1));
+			case RETURN : return postprocess((ReturnNode) node, result(base, 0));
+			case FUNCTION : return postprocess((FunctionNode) node, result(base, 0));
+			case FUNCTION_LIST : return postprocess((FunctionListNode) node, view.of(base));
+			case CALL : return postprocess((CallNode) node, view.of(base));
+			case PTR_DEREF : return postprocess((PtrDerefNode) node, result(base, 0));
+			case ADDR_OF : return postprocess((AddrOfNode) node, result(base, 0));
+			case MALLOC : return postprocess((MallocNode) node, result(base, 0));
+			case FREE : return postprocess((FreeNode) node, result(base, 0));
+			default : return null;
+			}
+		}
+
+		/**
+		 * The results of the children of the node being postprocessed.
+		 */
+		private final class Results extends AbstractList<R> implements RandomAccess {
+
+			private int from;
+			private int to;
+
+			Results of(int base) {
+				from = base;
+				to = count;
+				return this;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public R get(int i) {
+				if (i < 0 || i >= to - from) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + (to - from));
+				return (R) results[from + i];
+			}
+
+			@Override
+			public int size() {
+				return to - from;
+			}
+		}
+
 	}
 
 	@Override
@@ -32,7 +32,7 @@ public class PrintVisitor extends AbstractASTVisitor<Void> {
 	@Override
 	public Void run(ASTNode node) {
 		depth = 0;
-		return node.accept(this);
+		return super.run(node);
 	}
 	
 	@Override
@@ -0,0 +1,50 @@
+package compiler;
+
+import java.io.PrintStream;
+
+/**
+ * Everything that belongs to one compilation: the options it runs with, the
+ * symbol table being built by the parser, the stream that diagnostics and
+ * assembly go to, and the statistics gathered along the way.
+ *
+ * Nothing in the compiler is static any more, so any number of contexts can
+ * be alive at once, each compiled on its own thread.
+ */
+public class CompilationContext {
+
+	private final SymbolTable symbolTable;
+	private final PrintStream out;
+	private final Options options;
+	private final CompileStats stats;
+
+	public CompilationContext(PrintStream out, Options options) {
+		this(out, options, new CompileStats());
+	}
+
+	/**
+	 * A context that adds to statistics gathered elsewhere, e.g. by the cache lookup before it.
+	 */
+	CompilationContext(PrintStream out, Options options, CompileStats stats) {
+		this.out = out;
+		this.options = options;
+		this.symbolTable = new SymbolTable(out);
+		this.stats = stats;
+	}
+
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	public PrintStream getOut() {
+		return out;
+	}
+
+	public Options getOptions() {
+		return options;
+	}
+
+	public CompileStats getStats() {
+		return stats;
+	}
+
+}
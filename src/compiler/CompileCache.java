@@ -0,0 +1,394 @@
+package compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import assembly.IncrementalCodeGenerator;
+
+/**
+ * On-disk cache of compiler output, shared by every compilation that uses the
+ * same <code>--cache</code> directory, including concurrent builds.
+ *
+ * An entry is keyed by the SHA-256 of the compiler version (a hash of the
+ * compiler's own class files), the options that change the output
+ * ({@link Options#cacheKey()}), whether the output goes to stdout or to a
+ * file with -o, which lay it out differently, and the source text. It
+ * holds everything a compilation writes to its output: the symbol table
+ * dump and the assembly. A hit copies the entry out without lexing or
+ * parsing.
+ *
+ * On a miss, the code of each function is looked up on its own (under
+ * <code>functions/</code>), so only the functions that changed since an
+ * earlier compilation go through the code generator; see
+ * {@link IncrementalCodeGenerator}.
+ *
+ * Entries are written to a temporary file and renamed into place, so readers
+ * never see a partial entry. A hit touches the entry's modification time;
+ * when the cache grows past its size bound the least recently used entries
+ * are deleted.
+ *
+ * Entry format: a first line with the wall time the compilation took, in
+ * nanoseconds (reported as time saved on a hit), then the output.
+ */
+public class CompileCache implements IncrementalCodeGenerator.FunctionStore {
+
+	private static final Map<Path, CompileCache> caches = new ConcurrentHashMap<Path, CompileCache>();
+	private static String version;
+
+	private final Path dir;
+	private final long maxBytes;
+	private final AtomicLong used;
+
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong savedNs = new AtomicLong();
+
+	/**
+	 * @return the cache for <code>options.cacheDir</code>, or null without --cache
+	 */
+	public static CompileCache get(Options options) {
+		if (options.cacheDir == null) return null;
+		Path dir = Paths.get(options.cacheDir).toAbsolutePath().normalize();
+		return caches.computeIfAbsent(dir, d -> new CompileCache(d, options.cacheSize));
+	}
+
+	private CompileCache(Path dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		try {
+			Files.createDirectories(dir);
+			this.used = new AtomicLong(entries().stream().mapToLong(e -> e.size).sum());
+		} catch (IOException e) {
+			throw new Error("Cannot use cache " + dir + ": " + e);
+		}
+	}
+
+	/**
+	 * Compile through the cache, writing the output to <code>ctx.getOut()</code>.
+	 */
+	void compile(CharStream input, CompilationContext ctx) {
+		CompileStats stats = ctx.getStats();
+		stats.setFile(input.getSourceName());
+		stats.begin("cache");
+		String key = key(input, ctx.getOptions(), false);
+		if (fetch(key, ctx.getOut(), stats)) {
+			stats.end();
+			return;
+		}
+
+		long start = System.nanoTime();
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream bufOut = new PrintStream(buf, false);
+		Compiler.generate(input, new CompilationContext(bufOut, ctx.getOptions(), stats));
+		bufOut.flush();
+		long elapsed = System.nanoTime() - start;
+
+		stats.begin("cache");
+		store(key, elapsed, buf.toByteArray());
+		try {
+			buf.writeTo(ctx.getOut());
+		} catch (IOException e) {
+			throw new Error(e); //PrintStream never throws
+		}
+		ctx.getOut().flush();
+		stats.end();
+	}
+
+	/**
+	 * Compile straight to a file through the cache; a miss streams the code
+	 * out as usual and then copies the file into the cache.
+	 */
+	void compileToFile(CharStream input, Path output, Options options) throws IOException {
+		CompileStats stats = new CompileStats();
+		stats.setFile(input.getSourceName());
+		stats.begin("cache");
+		String key = key(input, options, true);
+		try (OutputStream os = Files.newOutputStream(output)) {
+			if (fetch(key, os, stats)) {
+				stats.end();
+				Compiler.reportStats(options, stats);
+				return;
+			}
+		}
+
+		long start = System.nanoTime();
+		Compiler.generateToFile(input, output, options, stats);
+		long elapsed = System.nanoTime() - start;
+
+		stats.begin("cache");
+		store(key, elapsed, Files.readAllBytes(output));
+		stats.end();
+		Compiler.reportStats(options, stats);
+	}
+
+	/**
+	 * @param toFile whether the output is for {@link #compileToFile} rather
+	 *               than {@link #compile}
+	 */
+	String key(CharStream input, Options options, boolean toFile) {
+		MessageDigest md = sha256();
+		md.update(compilerVersion().getBytes(StandardCharsets.UTF_8));
+		md.update((byte) 0);
+		md.update(options.cacheKey().getBytes(StandardCharsets.UTF_8));
+		md.update((byte) 0);
+		md.update((toFile ? "file" : "stdout").getBytes(StandardCharsets.UTF_8));
+		md.update((byte) 0);
+		md.update(input.getText(Interval.of(0, input.size() - 1)).getBytes(StandardCharsets.UTF_8));
+		return hex(md.digest());
+	}
+
+	/**
+	 * Copy the entry for <code>key</code> to <code>out</code>, if there is one.
+	 */
+	private boolean fetch(String key, OutputStream out, CompileStats stats) {
+		lookups.incrementAndGet();
+		Path entry = entryPath(key);
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(entry);
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (NoSuchFileException e) {
+			stats.count("cache_misses", 1);
+			return false;
+		} catch (IOException e) {
+			//evicted while we read it, or unreadable: compile instead
+			stats.count("cache_misses", 1);
+			return false;
+		}
+
+		int nl = 0;
+		while (nl < bytes.length && bytes[nl] != '\n') nl++;
+		long saved;
+		try {
+			saved = Long.parseLong(new String(bytes, 0, nl, StandardCharsets.UTF_8));
+		} catch (NumberFormatException e) {
+			stats.count("cache_misses", 1);
+			return false;
+		}
+		try {
+			out.write(bytes, nl + 1, bytes.length - nl - 1);
+			out.flush();
+		} catch (IOException e) {
+			throw new Error(e);
+		}
+
+		hits.incrementAndGet();
+		savedNs.addAndGet(saved);
+		stats.count("cache_hits", 1);
+		stats.count("cache_saved_ns", saved);
+		return true;
+	}
+
+	private void store(String key, long elapsedNs, byte[] output) {
+		write(entryPath(key), (elapsedNs + "\n").getBytes(StandardCharsets.UTF_8), output);
+	}
+
+	/**
+	 * The code of one function, for {@link IncrementalCodeGenerator}.
+	 */
+	@Override
+	public String get(String key) {
+		Path entry = functionPath(key);
+		try {
+			byte[] bytes = Files.readAllBytes(entry);
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+			return new String(bytes, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void put(String key, String entry) {
+		write(functionPath(key), new byte[0], entry.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Write an entry atomically: to a temporary file first, then renamed into place.
+	 */
+	private void write(Path entry, byte[] header, byte[] body) {
+		Path tmp = null;
+		try {
+			Files.createDirectories(entry.getParent());
+			tmp = Files.createTempFile(dir, ".tmp-", "");
+			try (OutputStream os = Files.newOutputStream(tmp)) {
+				os.write(header);
+				os.write(body);
+			}
+			try {
+				Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+			}
+			tmp = null;
+		} catch (IOException e) {
+			System.err.println("Cannot write cache entry " + entry + ": " + e);
+			return;
+		} finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException ignored) { }
+			}
+		}
+
+		if (used.addAndGet(header.length + body.length) > maxBytes) {
+			evict();
+		}
+	}
+
+	/**
+	 * Delete least recently used entries until the cache is at 80% of its bound.
+	 * Other processes may be evicting at the same time; deleting an entry twice
+	 * is harmless.
+	 */
+	private synchronized void evict() {
+		if (used.get() <= maxBytes) return;
+		try {
+			List<Entry> entries = entries();
+			entries.sort(Comparator.comparing(e -> e.lastUsed));
+			long total = entries.stream().mapToLong(e -> e.size).sum();
+			for (Entry e : entries) {
+				if (total <= maxBytes * 8 / 10) break;
+				Files.deleteIfExists(e.path);
+				total -= e.size;
+			}
+			used.set(total);
+		} catch (IOException e) {
+			System.err.println("Cannot evict from cache " + dir + ": " + e);
+		}
+	}
+
+	private static class Entry {
+		Path path;
+		long size;
+		FileTime lastUsed;
+	}
+
+	/**
+	 * All entries, skipping temporary files (those over an hour old were left
+	 * behind by a killed build and are deleted).
+	 */
+	private List<Entry> entries() throws IOException {
+		long stale = System.currentTimeMillis() - 3600 * 1000;
+		List<Entry> entries = new ArrayList<Entry>();
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path p : files.collect(Collectors.toList())) {
+				BasicFileAttributes attrs;
+				try {
+					attrs = Files.readAttributes(p, BasicFileAttributes.class);
+				} catch (NoSuchFileException e) {
+					continue;
+				}
+				if (!attrs.isRegularFile()) continue;
+				if (p.getFileName().toString().startsWith(".tmp-")) {
+					if (attrs.lastModifiedTime().toMillis() < stale) Files.deleteIfExists(p);
+					continue;
+				}
+				Entry e = new Entry();
+				e.path = p;
+				e.size = attrs.size();
+				e.lastUsed = attrs.lastModifiedTime();
+				entries.add(e);
+			}
+		}
+		return entries;
+	}
+
+	private Path entryPath(String key) {
+		return dir.resolve(key.substring(0, 2)).resolve(key.substring(2));
+	}
+
+	private Path functionPath(String key) {
+		return dir.resolve("functions").resolve(key.substring(0, 2)).resolve(key.substring(2));
+	}
+
+	/**
+	 * What function entries are salted with, so they are only shared by the
+	 * same compiler run with the same options.
+	 */
+	String functionSalt(Options options) {
+		return compilerVersion() + "\0" + options.cacheKey();
+	}
+
+	public long getLookups() {
+		return lookups.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getSavedNs() {
+		return savedNs.get();
+	}
+
+	/**
+	 * A hash of the class files the compiler is running from, so rebuilding
+	 * the compiler invalidates every entry.
+	 */
+	static synchronized String compilerVersion() {
+		if (version != null) return version;
+		MessageDigest md = sha256();
+		try {
+			Path code = Paths.get(Compiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			List<Path> files;
+			try (Stream<Path> walk = Files.walk(code)) {
+				files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+			byte[] buf = new byte[1 << 16];
+			for (Path f : files) {
+				md.update(code.relativize(f).toString().getBytes(StandardCharsets.UTF_8));
+				try (InputStream in = Files.newInputStream(f)) {
+					int n;
+					while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+				}
+			}
+		} catch (IOException | URISyntaxException | RuntimeException e) {
+			throw new Error("Cannot determine compiler version for the cache: " + e);
+		}
+		version = hex(md.digest());
+		return version;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,53 @@
+package compiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Thin client for {@link CompileServer}. Takes the same arguments as
+ * {@link Compiler} and prints the same output, but the work happens in the
+ * already-warm server. Only JDK classes are loaded here. Options the
+ * server cannot honour, such as -o and --stats, fail with status 1; see
+ * {@link CompileServer}.
+ *
+ * Usage: CompileClient socket-path [options] file.uC
+ */
+public class CompileClient {
+
+	public static void main(String args[]) throws IOException {
+		StringBuilder request = new StringBuilder();
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			//the server has its own working directory, so send absolute input paths
+			if (!arg.startsWith("-") && Paths.get(arg).toFile().exists()) {
+				arg = Paths.get(arg).toAbsolutePath().toString();
+			}
+			request.append(arg).append('\n');
+		}
+		request.append('\n');
+
+		try (SocketChannel c = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+			c.connect(UnixDomainSocketAddress.of(args[0]));
+			OutputStream os = Channels.newOutputStream(c);
+			os.write(request.toString().getBytes(StandardCharsets.UTF_8));
+			os.flush();
+
+			InputStream in = Channels.newInputStream(c);
+			int status = 0;
+			for (int b = in.read(); b != '\n' && b != -1; b = in.read()) {
+				status = status * 10 + (b - '0');
+			}
+			in.transferTo(System.out);
+			System.out.flush();
+			System.exit(status);
+		}
+	}
+
+}
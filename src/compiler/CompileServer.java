@@ -0,0 +1,125 @@
+package compiler;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * Long-lived compile daemon listening on a Unix-domain socket, so repeated
+ * compiles skip JVM startup, class loading and parser warm-up.
+ *
+ * Usage: CompileServer socket-path
+ *
+ * Protocol (one request per connection):
+ *
+ * <pre>
+ *   request:  one Compiler argument per line (input paths absolute), then an empty line
+ *   response: exit status on its own line ("0" or "1"), then the compiler output until EOF
+ * </pre>
+ *
+ * A request compiles one file, with its output in the response. Options
+ * that write the output elsewhere (-o, --batch, -d, --stream) or write
+ * anything outside it (--stats, whose report would go to the server's
+ * stderr or a file relative to its working directory) are rejected with
+ * status 1, as is a request without exactly one input.
+ *
+ * Each request runs on its own thread with its own {@link CompilationContext},
+ * so requests never see each other's symbol tables. See {@link CompileClient}
+ * for the matching client.
+ */
+public class CompileServer {
+
+	private Path socketPath;
+	private ExecutorService workers;
+
+	public CompileServer(Path socketPath) {
+		this.socketPath = socketPath;
+		this.workers = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "compile-worker");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public static void main(String args[]) throws IOException {
+		new CompileServer(Paths.get(args[0])).serve();
+	}
+
+	public void serve() throws IOException {
+		Files.deleteIfExists(socketPath);
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(UnixDomainSocketAddress.of(socketPath));
+			socketPath.toFile().deleteOnExit();
+			System.err.println("compile server listening on " + socketPath);
+
+			while (true) {
+				SocketChannel client = server.accept();
+				workers.execute(() -> handle(client));
+			}
+		}
+	}
+
+	private void handle(SocketChannel client) {
+		try (SocketChannel c = client) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(c), StandardCharsets.UTF_8));
+			List<String> args = new ArrayList<String>();
+			for (String line = in.readLine(); line != null && !line.isEmpty(); line = in.readLine()) {
+				args.add(line);
+			}
+
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			int status = compile(args.toArray(new String[0]), new PrintStream(result, false));
+
+			OutputStream os = Channels.newOutputStream(c);
+			os.write((status + "\n").getBytes(StandardCharsets.UTF_8));
+			result.writeTo(os);
+			os.flush();
+		} catch (IOException e) {
+			System.err.println("compile server: " + e);
+		}
+	}
+
+	/**
+	 * Run one compile request. Mirrors single-file {@link Compiler#main}, but
+	 * reports failure through the status instead of exiting.
+	 */
+	static int compile(String args[], PrintStream out) {
+		try {
+			Options options = Options.parse(args);
+			if (options.outFile != null) throw new Error("-o is not supported by the compile server");
+			if (options.batch || options.outDir != null) throw new Error("--batch is not supported by the compile server");
+			if (options.stream) throw new Error("--stream is not supported by the compile server");
+			if (options.stats) throw new Error("--stats is not supported by the compile server");
+			if (options.inputs.size() != 1) throw new Error("Expected one input, got " + options.inputs.size());
+			Compiler.compile(CharStreams.fromFileName(options.inputs.get(0)), new CompilationContext(out, options));
+			return 0;
+		} catch (IOException e) {
+			out.println("File not found");
+			return 1;
+		} catch (RuntimeException | Error e) {
+			out.println(e);
+			return 1;
+		} finally {
+			out.flush();
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package compiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-phase timing and allocation figures for one compilation, reported by
+ * <code>--stats</code> as a JSON object so CI can track them across commits:
+ *
+ * <pre>
+ * {"file": "...", "phases": {"lex": {"wall_ns": .., "cpu_ns": .., "alloc_bytes": ..}, ...}}
+ * </pre>
+ *
+ * CPU time and allocation come from the JVM's thread MXBean and cover the
+ * compiling thread only (not worker threads of <code>--codegen-jobs</code>).
+ */
+public class CompileStats {
+
+	private static final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private String file;
+	private Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+	private Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+	private String current;
+	private long wallStart;
+	private long cpuStart;
+	private long allocStart;
+
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	/**
+	 * Start timing <code>phase</code>. Phases do not nest; starting one ends the previous.
+	 */
+	public void begin(String phase) {
+		end();
+		current = phase;
+		wallStart = System.nanoTime();
+		cpuStart = threads.getCurrentThreadCpuTime();
+		allocStart = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public void end() {
+		if (current == null) return;
+		long wall = System.nanoTime() - wallStart;
+		long cpu = threads.getCurrentThreadCpuTime() - cpuStart;
+		long alloc = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocStart;
+
+		long[] p = phases.computeIfAbsent(current, k -> new long[3]);
+		p[0] += wall;
+		p[1] += cpu;
+		p[2] += alloc;
+		current = null;
+	}
+
+	/**
+	 * Record a named count (e.g. cache hits) alongside the phase figures.
+	 */
+	public void count(String name, long n) {
+		counters.merge(name, n, Long::sum);
+	}
+
+	public String toJson() {
+		end();
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"file\": ").append(quote(file)).append(", \"phases\": {");
+		String sep = "";
+		long[] total = new long[3];
+		for (Map.Entry<String, long[]> e : phases.entrySet()) {
+			sb.append(sep).append(quote(e.getKey())).append(": ").append(phaseJson(e.getValue()));
+			for (int i = 0; i < 3; i++) total[i] += e.getValue()[i];
+			sep = ", ";
+		}
+		sb.append("}, \"total\": ").append(phaseJson(total));
+		for (Map.Entry<String, Long> e : counters.entrySet()) {
+			sb.append(", ").append(quote(e.getKey())).append(": ").append(e.getValue());
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+
+	private static String phaseJson(long[] p) {
+		return "{\"wall_ns\": " + p[0] + ", \"cpu_ns\": " + p[1] + ", \"alloc_bytes\": " + p[2] + "}";
+	}
+
+	private static String quote(String s) {
+		if (s == null) return "null";
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+}
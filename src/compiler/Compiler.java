@@ -1,67 +1,519 @@
 package compiler;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
 
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
 
+import assembly.AsmEmitter;
 import assembly.CodeGenerator;
-import assembly.CodeObject;
+import assembly.IncrementalCodeGenerator;
+import assembly.ParallelCodeGenerator;
 import ast.ASTNode;
+import ast.CompactFunction;
+import ast.ConstantFolder;
+import ast.FunctionListNode;
+import ast.FunctionNode;
+import ast.Inliner;
+import ast.TailCalls;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 public class Compiler {
 
-	static public SymbolTable symbolTable = new SymbolTable();
-
 	public Compiler() {
-		
+
 	}
 
 	public static void main(String args[]) {
-		
-		
+
+		Options options;
 		try {
-			MicroCLexer lexer = new MicroCLexer(CharStreams.fromFileName(args[0]));
-			
-			MicroCParser parser = new MicroCParser(new CommonTokenStream(lexer));
+			options = Options.parse(args);
+		} catch (IOException e) {
+			System.err.println("Cannot read manifest: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
 
-			parser.setSymbolTable(symbolTable);
-			
-			parser.program(); //parse the program to build the ast
-			
-			//Print out the symbol table. Helpful for debugging
-			symbolTable.printTable();
+		if (options.batch) {
+			System.exit(runBatch(options));
+		}
 
-			ASTNode ast = parser.getAST();
+		try {
+			if (options.stream) {
+				if (options.outFile == null) throw new Error("--stream needs -o");
+				try (Reader input = Files.newBufferedReader(Paths.get(options.inputs.get(0)), StandardCharsets.UTF_8)) {
+					compileStreaming(input, options.inputs.get(0), Paths.get(options.outFile), options);
+				}
+			} else if (options.outFile != null) {
+				compileToFile(CharStreams.fromFileName(options.inputs.get(0)), Paths.get(options.outFile), options);
+			} else {
+				compile(CharStreams.fromFileName(options.inputs.get(0)), new CompilationContext(System.out, options));
+			}
+		} catch (IOException e) {
+			System.out.println("File not found");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
 
-			// Uncomment this line to print out your AST for debugging purposes
-			// PrintVisitor pv = new PrintVisitor();
-			// pv.run(ast);
+	/**
+	 * Compile one program and write its assembly to <code>out</code>.
+	 *
+	 * Every call gets a fresh {@link CompilationContext}, so nothing leaks from one
+	 * compilation into the next. Lexer and parser instances are cheap; the
+	 * expensive ATN and DFA caches are static in the generated classes and stay
+	 * warm across calls in the same JVM.
+	 *
+	 * @param input the source program
+	 * @param out where the symbol table dump and the assembly are written
+	 */
+	public static void compile(CharStream input, PrintStream out) {
+		compile(input, new CompilationContext(out, new Options()));
+	}
 
-			CodeGenerator cg = new CodeGenerator();
-			CodeObject co = cg.run(ast);
+	/**
+	 * Compile one program within the given context. Safe to call from several
+	 * threads at once as long as each call has its own context.
+	 */
+	public static void compile(CharStream input, CompilationContext ctx) {
+		CompileCache cache = CompileCache.get(ctx.getOptions());
+		if (cache != null) {
+			cache.compile(input, ctx);
+		} else {
+			generate(input, ctx);
+		}
 
-			// Print out ".section .text"
-			System.out.println(".section .text");
+		reportStats(ctx.getOptions(), ctx.getStats());
+	}
 
-			// Print out the code. Runme script will redirect as necessary
-			System.out.println(co);
+	/**
+	 * Lex, parse and generate code for one program, writing the symbol table
+	 * and the assembly to <code>ctx.getOut()</code>.
+	 */
+	static void generate(CharStream input, CompilationContext ctx) {
+		PrintStream out = ctx.getOut();
+		CompileStats stats = ctx.getStats();
 
-			//Print out strings
-			printStrings();
+		ASTNode ast = parse(input, ctx);
 
-		} catch (IOException e) {
-			System.out.println("File not found");
-			e.printStackTrace();
-			System.exit(1);
-		}		
+		stats.begin("codegen");
+		String code;
+		CompileCache cache = CompileCache.get(ctx.getOptions());
+		boolean hoist = hoistInvariants(ctx.getOptions());
+		if (ctx.getOptions().codegenJobs > 1) {
+			ParallelCodeGenerator pcg = new ParallelCodeGenerator(out, ctx.getOptions().codegenJobs);
+			pcg.setHoistInvariants(hoist);
+			code = pcg.run((FunctionListNode) ast).toString();
+		} else if (cache != null) {
+			//only regenerate the functions that changed since they were last cached
+			IncrementalCodeGenerator icg = new IncrementalCodeGenerator(out, cache, cache.functionSalt(ctx.getOptions()));
+			icg.setHoistInvariants(hoist);
+			code = icg.run((FunctionListNode) ast);
+			stats.count("functions_reused", icg.getReused());
+			stats.count("functions_generated", icg.getGenerated());
+		} else {
+			CodeGenerator cg = new CodeGenerator(out);
+			cg.setHoistInvariants(hoist);
+			code = cg.run(ast).toString();
+		}
+
+		stats.begin("emit");
+		// Print out ".section .text"
+		out.println(".section .text");
+
+		// Print out the code. Runme script will redirect as necessary
+		out.println(code);
+
+		//Print out strings
+		printStrings(ctx.getSymbolTable(), out);
+		out.flush();
+		stats.end();
+	}
+
+	/**
+	 * Compile one program straight to a file, streaming the code out one
+	 * function at a time instead of building it all in memory first.
+	 */
+	public static void compileToFile(CharStream input, Path output, Options options) throws IOException {
+		CompileCache cache = CompileCache.get(options);
+		if (cache != null) {
+			cache.compileToFile(input, output, options);
+			return;
+		}
+
+		CompileStats stats = new CompileStats();
+		generateToFile(input, output, options, stats);
+		reportStats(options, stats);
+	}
+
+	static void generateToFile(CharStream input, Path output, Options options, CompileStats stats) throws IOException {
+		try (AsmEmitter emitter = new AsmEmitter(output)) {
+			CompilationContext ctx = new CompilationContext(emitter.getOut(), options, stats);
+
+			ASTNode ast = parse(input, ctx);
+
+			CodeGenerator cg = new CodeGenerator(emitter.getOut());
+			cg.setHoistInvariants(hoistInvariants(options));
+			emitter.emitProgram((FunctionListNode) ast, cg, stats);
+
+			stats.begin("emit");
+			printStrings(ctx.getSymbolTable(), emitter.getOut());
+			emitter.getOut().flush();
+			stats.end();
+		}
+	}
+
+	/**
+	 * With --stream, compile a program as it is read: each function is parsed,
+	 * its code generated and written, and then it is dropped along with its
+	 * scope before the next one is read. Only the global scope lives for the
+	 * whole compilation, so memory is bounded by the largest function rather
+	 * than the size of the source. Uses the {@link RecursiveDescentParser},
+	 * which keeps neither tokens nor a parse tree, and bypasses the cache,
+	 * which needs the whole source for its key.
+	 *
+	 * The assembly is the same as with -o alone. The symbol table dump comes
+	 * out in a different place: each function's table just before its code,
+	 * the global table after the text section.
+	 */
+	public static void compileStreaming(Reader input, String sourceName, Path output, Options options) throws IOException {
+		CompileStats stats = new CompileStats();
+		stats.setFile(sourceName);
+		try (AsmEmitter emitter = new AsmEmitter(output)) {
+			PrintStream out = emitter.getOut();
+			CompilationContext ctx = new CompilationContext(out, options, stats);
+			SymbolTable st = ctx.getSymbolTable();
+			CodeGenerator cg = new CodeGenerator(out);
+			cg.setHoistInvariants(hoistInvariants(options));
+
+			emitter.beginText(cg, stats);
+			stats.begin("parse");
+			RecursiveDescentParser parser = new RecursiveDescentParser(new HandLexer(input, sourceName), ctx);
+			parser.setFunctionSink(f -> {
+				stats.begin("symtab");
+				f.getScope().printTable(out);
+				st.getGlobalScope().dropSubScopes();
+				emitter.emitFunction(optimize(f, ctx), cg, stats);
+				stats.begin("parse");
+			});
+			parser.program();
+			emitter.endText();
+
+			stats.begin("symtab");
+			st.printTable();
+			stats.begin("emit");
+			printStrings(st, out);
+			out.flush();
+			stats.end();
+		}
+		reportStats(options, stats);
+	}
+
+	/**
+	 * Parse a program, building its symbol table in <code>ctx</code>, and print
+	 * the symbol table.
+	 *
+	 * @return the AST of the program
+	 */
+	private static ASTNode parse(CharStream input, CompilationContext ctx) {
+		CompileStats stats = ctx.getStats();
+		stats.setFile(input.getSourceName());
+
+		ASTNode ast;
+		HandLexer direct = ctx.getOptions().rdParser ? HandLexer.of(input) : null;
+		boolean compact = ctx.getOptions().compactAst;
+		if (direct != null) {
+			stats.begin("parse"); //lexing happens on demand, so it is timed as part of parsing
+			RecursiveDescentParser parser = new RecursiveDescentParser(direct, ctx);
+			if (compact) {
+				//pack each function as soon as it is parsed, so the whole program is never held as nodes
+				List<CompactFunction> functions = new ArrayList<CompactFunction>();
+				parser.setFunctionSink(f -> functions.add(CompactFunction.of(optimize(f, ctx))));
+				parser.program();
+				ast = new FunctionListNode(CompactFunction.inflating(functions));
+			} else {
+				ast = optimize(parser.program(), ctx);
+			}
+		} else {
+			stats.begin("lex");
+			CommonTokenStream tokens = new CommonTokenStream(lexer(input, ctx.getOptions()));
+			tokens.fill(); //lex everything up front so lexing and parsing are timed separately
+
+			//no --compact-ast here: the whole program is already held as tokens, parse tree and nodes
+			stats.begin("parse");
+			ast = optimize((FunctionListNode) parse(tokens, ctx), ctx);
+		}
+
+		stats.begin("symtab");
+		//Print out the symbol table. Helpful for debugging
+		ctx.getSymbolTable().printTable();
+		stats.end();
+
+		// Uncomment this line to print out your AST for debugging purposes
+		// PrintVisitor pv = new PrintVisitor();
+		// pv.run(ast);
+
+		return ast;
 	}
 
-	private static void printStrings() {
-		System.out.println();
-		System.out.println(".section .strings");
+	/**
+	 * The program as code is to be generated for it: each function optimized
+	 * as {@link #optimize(FunctionNode, CompilationContext)} does, but with 2
+	 * and up, calls are inlined by an {@link Inliner} in between.
+	 */
+	private static FunctionListNode optimize(FunctionListNode program, CompilationContext ctx) {
+		Options options = ctx.getOptions();
+		if (options.optLevel < 1) return program;
+		boolean inline = options.optLevel >= 2;
+		List<FunctionNode> functions = new ArrayList<FunctionNode>(program.getFunctions().size());
+		for (FunctionNode f : program.getFunctions()) {
+			functions.add(inline ? simplify(f, ctx) : optimize(f, ctx));
+		}
+		program = new FunctionListNode(functions);
+		if (inline) {
+			Inliner inliner = new Inliner();
+			program = inliner.run(program);
+			ctx.getStats().count("inlined", inliner.getInlined());
+			//again, now that literal arguments stand for the parameters of inlined calls,
+			//and calls inlined into a return may have become tail calls
+			functions = new ArrayList<FunctionNode>(program.getFunctions().size());
+			for (FunctionNode f : program.getFunctions()) {
+				functions.add(optimize(f, ctx));
+			}
+			program = new FunctionListNode(functions);
+		}
+		return program;
+	}
+
+	/**
+	 * A function as code is to be generated for it, optimized as much as -O
+	 * asks for: simplified, then with 2 and up, the calls it still returns
+	 * made into jumps where they can be by {@link TailCalls#jump}. Time spent
+	 * here is counted in whatever phase is running.
+	 */
+	static FunctionNode optimize(FunctionNode f, CompilationContext ctx) {
+		f = simplify(f, ctx);
+		if (ctx.getOptions().optLevel >= 2) {
+			TailCalls tailCalls = new TailCalls();
+			f = tailCalls.jump(f);
+			ctx.getStats().count("tail_calls", tailCalls.getJumps());
+		}
+		return f;
+	}
+
+	/**
+	 * What can be done to a function on its own: with -O 1 and up, its
+	 * constants folded by a {@link ConstantFolder}, and with 2 and up, its
+	 * tail calls to itself made into a loop by {@link TailCalls#loop}.
+	 */
+	private static FunctionNode simplify(FunctionNode f, CompilationContext ctx) {
+		if (ctx.getOptions().optLevel < 1) return f;
+		ConstantFolder folder = new ConstantFolder();
+		f = (FunctionNode) folder.run(f);
+		ctx.getStats().count("folded", folder.getFolded());
+		if (ctx.getOptions().optLevel >= 2) {
+			TailCalls tailCalls = new TailCalls();
+			f = tailCalls.loop(f);
+			ctx.getStats().count("tail_loops", tailCalls.getLoops());
+		}
+		return f;
+	}
+
+	/**
+	 * Whether code generators should move loop-invariant code out of loops,
+	 * which they do with -O 2 and up.
+	 */
+	private static boolean hoistInvariants(Options options) {
+		return options.optLevel >= 2;
+	}
+
+	/**
+	 * The lexer for <code>input</code>: a {@link HandLexer} with --hand-lexer,
+	 * unless the source has characters it cannot scan, otherwise the
+	 * generated one.
+	 */
+	static TokenSource lexer(CharStream input, Options options) {
+		HandLexer lexer = options.handLexer ? HandLexer.of(input) : null;
+		return (lexer != null) ? lexer : new MicroCLexer(input);
+	}
+
+	/**
+	 * Parse a program from its tokens, building its symbol table in
+	 * <code>ctx</code>.
+	 *
+	 * Unless --full-ll is given, the program is first parsed with ANTLR's SLL
+	 * prediction, which is much cheaper than full LL but can fail on input
+	 * that is valid. It bails out at the first error instead of recovering;
+	 * then, or if anything else goes wrong in it, the symbol table is rolled
+	 * back and the program parsed again from the start with full LL, which
+	 * reports syntax and semantic errors as usual. The grammar's actions add
+	 * symbols and may print diagnostics while the first parse runs, so those
+	 * are held back until it has succeeded.
+	 *
+	 * @return the AST of the program
+	 */
+	public static ASTNode parse(TokenStream tokens, CompilationContext ctx) {
+		MicroCParser parser = new MicroCParser(tokens);
+		parser.setContext(ctx);
+
+		if (ctx.getOptions().fullLL) {
+			parser.program();
+			return parser.getAST();
+		}
+
+		SymbolTable st = ctx.getSymbolTable();
+		ByteArrayOutputStream held = new ByteArrayOutputStream();
+		PrintStream out = st.setOut(new PrintStream(held, true));
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		parser.removeErrorListeners();
+		parser.setErrorHandler(new BailErrorStrategy());
+		try {
+			parser.program();
+			st.setOut(out);
+			out.write(held.toByteArray(), 0, held.size());
+			return parser.getAST();
+		} catch (RuntimeException | Error e) {
+			//not only a bail out: a mispredicted SLL path runs grammar actions a valid parse never would
+			st.setOut(out);
+			st.reset();
+		}
+
+		ctx.getStats().count("parse_ll_retries", 1);
+		tokens.seek(0);
+		parser.reset();
+		parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+		parser.setErrorHandler(new DefaultErrorStrategy());
+		parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+		parser.program();
+		return parser.getAST();
+	}
+
+	/**
+	 * With --stats, write the statistics of a finished compilation as one JSON
+	 * line, to stderr or appended to the --stats file.
+	 */
+	static void reportStats(Options options, CompileStats stats) {
+		if (!options.stats) return;
+
+		String json = stats.toJson();
+		if (options.statsFile == null) {
+			System.err.println(json);
+			return;
+		}
+		synchronized (Compiler.class) { //batch jobs share the file
+			try {
+				Files.write(Paths.get(options.statsFile), (json + "\n").getBytes(StandardCharsets.UTF_8),
+						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			} catch (IOException e) {
+				System.err.println("Cannot write stats: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Batch mode: compile many files in one JVM.
+	 *
+	 * Each input foo.uC is written to foo.asm (under <code>-d outdir</code> if given).
+	 * With <code>-j</code>, up to that many files are compiled at once.
+	 *
+	 * @return process exit code: 0 if every file compiled, 1 otherwise
+	 */
+	private static int runBatch(Options options) {
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(options.jobs);
+		long failed;
+		try {
+			failed = pool.submit(() -> options.inputs.parallelStream()
+					.filter(input -> !compileFile(input, outputPath(input, options.outDir), options))
+					.count()).get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new Error(e);
+		} finally {
+			pool.shutdown();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.err.println(String.format("compiled %d files (%d failed) with %d jobs in %.1f ms, %.1f files/sec",
+				options.inputs.size(), failed, options.jobs, elapsed / 1e6, options.inputs.size() / (elapsed / 1e9)));
+		CompileCache cache = CompileCache.get(options);
+		if (cache != null && cache.getLookups() > 0) {
+			System.err.println(String.format("cache: %d of %d hits (%.1f%%), saved %.1f ms",
+					cache.getHits(), cache.getLookups(), 100.0 * cache.getHits() / cache.getLookups(), cache.getSavedNs() / 1e6));
+		}
+
+		return (failed == 0) ? 0 : 1;
+	}
+
+	/**
+	 * Map foo/bar.uC to foo/bar.asm, rooted at <code>outDir</code> if one is given.
+	 */
+	static Path outputPath(String input, String outDir) {
+		Path in = Paths.get(input);
+		String name = in.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		String asmName = ((dot > 0) ? name.substring(0, dot) : name) + ".asm";
+
+		Path asm = in.resolveSibling(asmName);
+		if (outDir == null) {
+			return asm;
+		}
+		if (asm.isAbsolute()) {
+			asm = asm.getFileName();
+		}
+		return Paths.get(outDir).resolve(asm).normalize();
+	}
+
+	/**
+	 * Compile a single file of a batch. Failures are reported and the
+	 * partial output removed, but never abort the rest of the batch.
+	 *
+	 * @return true if the file compiled
+	 */
+	static boolean compileFile(String input, Path output, Options options) {
+		try {
+			if (output.getParent() != null) {
+				Files.createDirectories(output.getParent());
+			}
+			try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(output));
+					PrintStream out = new PrintStream(os, false)) {
+				compile(CharStreams.fromFileName(input), new CompilationContext(out, options));
+			}
+			return true;
+		} catch (IOException | RuntimeException | Error e) {
+			System.err.println(input + ": " + e);
+			try {
+				Files.deleteIfExists(output);
+			} catch (IOException ignored) { }
+			return false;
+		}
+	}
+
+	private static void printStrings(SymbolTable symbolTable, PrintStream out) {
+		out.println();
+		out.println(".section .strings");
 
 		Scope g = symbolTable.getGlobalScope();
 
@@ -69,9 +521,9 @@ public class Compiler {
 		for (Scope.SymbolTableEntry ste : stes) {
 			if (ste.getType().type == Scope.InnerType.STRING) {
 				Scope.StringSymbolTableEntry sste = (Scope.StringSymbolTableEntry) ste;
-				System.out.println(String.format("0x%x", sste.getAddress()) + " " + sste.getValue());
+				out.println(String.format("0x%x", sste.getAddress()) + " " + sste.getValue());
 			}
 		}
 	}
-	
-}
\ No newline at end of file
+
+}
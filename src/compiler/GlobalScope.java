@@ -36,10 +36,19 @@ import java.util.List;
 
 	public ErrorType addFunctionSymbol(compiler.Scope.Type returnType, String name, List<compiler.Scope.Type> argTypes) {
 		ErrorType retVal = checkSymbol(name);
-		table.put(name, new FunctionSymbolTableEntry(returnType, name, argTypes));
+		declareFunction(returnType, name, argTypes);
 		return retVal;
 	}
 
+	/**
+	 * Add a function without checking its name, like {@link Scope#declare}.
+	 */
+	SymbolTableEntry declareFunction(compiler.Scope.Type returnType, String name, List<compiler.Scope.Type> argTypes) {
+		SymbolTableEntry ste = new FunctionSymbolTableEntry(returnType, name, argTypes);
+		table.put(name, ste);
+		return ste;
+	}
+
 	@Override
 	protected SymbolTableEntry searchLocalScope(String name) {
 		return table.get(name);
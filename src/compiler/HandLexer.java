@@ -0,0 +1,338 @@
+package compiler;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * A hand-written lexer for uC that produces the same tokens as the generated
+ * {@link MicroCLexer}: the same types, text, character indices, lines and
+ * columns, and the same "token recognition error" reports for characters it
+ * cannot match.
+ *
+ * It copies the source out of its {@link CharStream} once and scans the
+ * characters directly, instead of simulating the lexer ATN one character at
+ * a time through the stream. Tokens still point back into the stream for
+ * their text, so nothing is copied per token unless the parser asks for it.
+ *
+ * Only sources whose characters all fit in one UTF-16 unit can be scanned
+ * this way, since token indices count code points; see {@link #of}.
+ *
+ * A HandLexer can also read its source from a {@link Reader}, keeping only a
+ * window of it around the current token, for streaming compilation of
+ * sources too big to hold in memory. Its tokens then carry their own text.
+ */
+public class HandLexer implements TokenSource {
+
+	/** Token types of the keywords and punctuators, by their text */
+	private static final Map<String, Integer> literals = new HashMap<String, Integer>();
+	/** Token types of the one-character punctuators, by character */
+	private static final int[] punctuators = new int[128];
+	/** Text of the keywords and punctuators, by token type */
+	private static final String[] literalTexts = new String[MicroCLexer.VOCABULARY.getMaxTokenType() + 1];
+
+	static {
+		Vocabulary v = MicroCLexer.VOCABULARY;
+		for (int t = 1; t <= v.getMaxTokenType(); t++) {
+			String name = v.getLiteralName(t);
+			if (name == null) continue;
+			String text = name.substring(1, name.length() - 1); //strip the quotes
+			literals.put(text, t);
+			literalTexts[t] = text;
+			if (text.length() == 1) punctuators[text.charAt(0)] = t;
+		}
+	}
+
+	private final CharStream input; //null for a Reader source
+	private final String sourceName;
+	private final Pair<TokenSource, CharStream> source;
+	private TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+
+	private static final int WINDOW = 1 << 16; //initial size of the window of a Reader source
+
+	private final Reader reader; //null if the whole source is in buf
+	private char[] buf;
+	private int limit; //end of the valid characters in buf
+	private int base = 0; //index in the source of buf[0]
+	private int pos = 0;
+	private int line = 1;
+	private int col = 0;
+
+	/** Where the token last scanned starts */
+	int start;
+	int startLine;
+	int startCol;
+
+	private HandLexer(CharStream input, char[] buf) {
+		this.input = input;
+		this.sourceName = input.getSourceName();
+		this.source = new Pair<TokenSource, CharStream>(this, input);
+		this.reader = null;
+		this.buf = buf;
+		this.limit = buf.length;
+	}
+
+	/**
+	 * A lexer that reads its source from <code>reader</code> as it goes.
+	 *
+	 * @param sourceName what {@link #getSourceName} gives, e.g. the file name
+	 */
+	public HandLexer(Reader reader, String sourceName) {
+		this.input = null;
+		this.sourceName = sourceName;
+		this.source = new Pair<TokenSource, CharStream>(this, null);
+		this.reader = reader;
+		this.buf = new char[WINDOW];
+		this.limit = 0;
+	}
+
+	/**
+	 * A lexer for <code>input</code>, or null if it has characters that take
+	 * two UTF-16 units and so cannot be lexed this way.
+	 */
+	public static HandLexer of(CharStream input) {
+		char[] buf = input.getText(Interval.of(0, input.size() - 1)).toCharArray();
+		return (buf.length == input.size()) ? new HandLexer(input, buf) : null;
+	}
+
+	@Override
+	public Token nextToken() {
+		int type = scan();
+		String text = (input == null && type != Token.EOF) ? text() : null;
+		return factory.create(source, type, text, Token.DEFAULT_CHANNEL, base + start, base + pos - 1, startLine, startCol);
+	}
+
+	/**
+	 * Scan the next token without making a {@link Token} of it, for
+	 * front ends that do not use the ANTLR runtime. Its position is left in
+	 * {@link #startLine} and {@link #startCol}; {@link #text} gives its text.
+	 *
+	 * @return the type of the token, Token.EOF at the end of the source
+	 */
+	int scan() {
+		while (true) {
+			if (reader != null && pos > buf.length / 2) {
+				slide();
+			}
+			start = pos;
+			startLine = line;
+			startCol = col;
+			if (!has(pos)) {
+				return Token.EOF;
+			}
+
+			char c = buf[pos];
+			int type;
+			int end;
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				while (has(pos) && ((c = buf[pos]) == ' ' || c == '\t' || c == '\n' || c == '\r')) {
+					advance();
+				}
+				continue;
+			} else if (isLetter(c) || c == '_') {
+				while (has(pos) && (isLetter(c = buf[pos]) || isDigit(c) || c == '_')) {
+					advance();
+				}
+				Integer keyword = literals.get(new String(buf, start, pos - start));
+				type = (keyword != null) ? keyword : MicroCLexer.IDENTIFIER;
+			} else if (isDigit(c) || c == '.') {
+				while (has(pos) && isDigit(buf[pos])) {
+					advance();
+				}
+				if (has(pos + 1) && buf[pos] == '.' && isDigit(buf[pos + 1])) {
+					advance();
+					while (has(pos) && isDigit(buf[pos])) {
+						advance();
+					}
+					type = MicroCLexer.FLOAT_LITERAL;
+				} else if (pos > start) {
+					type = MicroCLexer.INT_LITERAL;
+				} else {
+					advance(); //a '.' not followed by a digit
+					error(start, startLine, startCol);
+					continue;
+				}
+			} else if (c == '"') {
+				advance();
+				while (has(pos) && buf[pos] != '"') {
+					advance();
+				}
+				if (!has(pos)) {
+					error(start, startLine, startCol);
+					continue;
+				}
+				advance();
+				type = MicroCLexer.STR_LITERAL;
+			} else if (c == '/' && has(pos + 1) && buf[pos + 1] == '*' && (end = commentEnd(pos + 2)) >= 0) {
+				while (pos < end) {
+					advance();
+				}
+				continue;
+			} else if ((c == '<' || c == '>' || c == '=' || c == '!') && has(pos + 1) && buf[pos + 1] == '=') {
+				advance();
+				advance();
+				type = literals.get(new String(buf, start, 2));
+			} else if (c < punctuators.length && punctuators[c] != 0) {
+				advance();
+				type = punctuators[c];
+			} else if (c == '!') {
+				advance(); //'!' only starts "!="
+				error(start, startLine, startCol);
+				continue;
+			} else {
+				error(start, startLine, startCol);
+				continue;
+			}
+
+			return type;
+		}
+	}
+
+	/**
+	 * The text of the token last returned by {@link #scan}.
+	 */
+	String text() {
+		return new String(buf, start, pos - start);
+	}
+
+	/**
+	 * The text of a keyword or punctuator token type, shared rather than
+	 * copied out of the source.
+	 */
+	static String literal(int type) {
+		return literalTexts[type];
+	}
+
+	/**
+	 * The token type of a keyword or punctuator, e.g. <code>type("while")</code>.
+	 */
+	static int type(String literal) {
+		Integer t = literals.get(literal);
+		if (t == null) throw new IllegalArgumentException("no token " + literal);
+		return t;
+	}
+
+	/**
+	 * The index just past the "*&#47;" that closes a comment whose body starts
+	 * at <code>from</code>, or -1 if it is never closed.
+	 */
+	private int commentEnd(int from) {
+		for (int i = from; has(i + 1); i++) {
+			if (buf[i] == '*' && buf[i + 1] == '/') return i + 2;
+		}
+		return -1;
+	}
+
+	/**
+	 * Report a token recognition error for the characters from
+	 * <code>start</code> up to and including the one that could not be
+	 * matched, and skip them, as the generated lexer does.
+	 */
+	private void error(int start, int startLine, int startCol) {
+		String text = new String(buf, start, (has(pos) ? pos + 1 : pos) - start);
+		ConsoleErrorListener.INSTANCE.syntaxError(null, null, startLine, startCol,
+				"token recognition error at: '" + escape(text) + "'", null);
+		if (has(pos)) {
+			advance();
+		}
+	}
+
+	/**
+	 * Whether there is a character at <code>i</code>, reading more of a
+	 * Reader source if needed. Reading only ever appends to the window, so
+	 * indices stay valid for the whole of a token.
+	 */
+	private boolean has(int i) {
+		if (i < limit) return true;
+		if (reader == null) return false;
+		try {
+			while (i >= limit) {
+				if (limit == buf.length) {
+					buf = Arrays.copyOf(buf, buf.length * 2); //a token longer than the window
+				}
+				int n = reader.read(buf, limit, buf.length - limit);
+				if (n < 0) return false;
+				limit += n;
+			}
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Between tokens, drop the characters of a Reader source that have been
+	 * scanned, so the window does not grow with the source.
+	 */
+	private void slide() {
+		System.arraycopy(buf, pos, buf, 0, limit - pos);
+		base += pos;
+		limit -= pos;
+		pos = 0;
+	}
+
+	private static String escape(String text) {
+		return text.replace("\n", "\\n").replace("\t", "\\t").replace("\r", "\\r");
+	}
+
+	private void advance() {
+		if (buf[pos++] == '\n') {
+			line++;
+			col = 0;
+		} else {
+			col++;
+		}
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	@Override
+	public int getLine() {
+		return line;
+	}
+
+	@Override
+	public int getCharPositionInLine() {
+		return col;
+	}
+
+	@Override
+	public CharStream getInputStream() {
+		return input;
+	}
+
+	@Override
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	@Override
+	public void setTokenFactory(TokenFactory<?> factory) {
+		this.factory = factory;
+	}
+
+	@Override
+	public TokenFactory<?> getTokenFactory() {
+		return factory;
+	}
+
+}
@@ -27,10 +27,19 @@ public class LocalScope extends Scope {
 
 	public ErrorType addArgument(Scope.Type type, String name) {
 		ErrorType retVal = checkSymbol(name);
-		table.put(name, genArgument(type, name));
+		declareArgument(type, name);
 		return retVal;
 	}
 
+	/**
+	 * Add an argument without checking its name, like {@link Scope#declare}.
+	 */
+	SymbolTableEntry declareArgument(Scope.Type type, String name) {
+		SymbolTableEntry ste = genArgument(type, name);
+		table.put(name, ste);
+		return ste;
+	}
+
 	protected SymbolTableEntry genArgument(Scope.Type type, String name) {
 		int addr = argsOffset;
 		SymbolTableEntry ste = new SymbolTableEntry(type, name, addr, true);
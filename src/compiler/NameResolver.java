@@ -0,0 +1,132 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import compiler.Scope.ErrorType;
+import compiler.Scope.FunctionSymbolTableEntry;
+import compiler.Scope.SymbolTableEntry;
+
+/**
+ * Resolves names against the scopes a {@link SymbolTable} has open, in
+ * constant time however many symbols or scopes there are.
+ *
+ * Every distinct name is interned once as a {@link Name}, which keeps the
+ * bindings of that name visible right now, innermost first. A binding is a
+ * (scope depth, slot) pair: the global scope is depth 0, and each
+ * declaration takes the next slot of its scope's frame. Resolving a name is
+ * one hash lookup for the name and one array lookup for the entry, instead
+ * of a map lookup in every scope from the current one outwards. A name is
+ * forgotten when its last binding goes, so the names held are only those
+ * of the scopes open, not every one the program has used.
+ */
+class NameResolver {
+
+	static final class Name {
+		final String text;
+		Binding top; //innermost visible binding, or null
+
+		Name(String text) {
+			this.text = text;
+		}
+	}
+
+	static final class Binding {
+		final int depth;
+		final int slot;
+		final Binding next; //the binding this one shadows
+
+		Binding(int depth, int slot, Binding next) {
+			this.depth = depth;
+			this.slot = slot;
+			this.next = next;
+		}
+	}
+
+	private final HashMap<String, Name> names = new HashMap<String, Name>();
+	/** Entries of each open scope, by depth then slot */
+	private final ArrayList<ArrayList<SymbolTableEntry>> frames = new ArrayList<ArrayList<SymbolTableEntry>>();
+	/** Names bound in each open scope, in the same order as the entries */
+	private final ArrayList<ArrayList<Name>> frameNames = new ArrayList<ArrayList<Name>>();
+
+	/**
+	 * The interned name for <code>text</code>.
+	 */
+	Name intern(String text) {
+		Name n = names.get(text);
+		if (n == null) {
+			n = new Name(text);
+			names.put(text, n);
+		}
+		return n;
+	}
+
+	/**
+	 * The entry <code>text</code> refers to in the innermost open scope, or
+	 * null if it is not declared.
+	 */
+	SymbolTableEntry resolve(String text) {
+		Name n = names.get(text);
+		if (n == null || n.top == null) return null;
+		return frames.get(n.top.depth).get(n.top.slot);
+	}
+
+	/**
+	 * What declaring <code>name</code> in the innermost scope would be, with
+	 * the same answers as {@link Scope#checkSymbol}.
+	 */
+	ErrorType check(Name name) {
+		Binding b = name.top;
+		if (b == null) return ErrorType.NONE;
+		if (b.depth == depth()) {
+			SymbolTableEntry ste = frames.get(b.depth).get(b.slot);
+			if (ste instanceof FunctionSymbolTableEntry && !((FunctionSymbolTableEntry) ste).isDefined()) {
+				return ErrorType.REDEC;
+			}
+			return ErrorType.ERROR;
+		}
+		return ErrorType.SHADOW;
+	}
+
+	/**
+	 * Bind <code>name</code> to <code>ste</code> in the innermost scope,
+	 * replacing its entry if it is already declared there.
+	 */
+	void bind(Name name, SymbolTableEntry ste) {
+		int depth = depth();
+		ArrayList<SymbolTableEntry> frame = frames.get(depth);
+		if (name.top != null && name.top.depth == depth) {
+			frame.set(name.top.slot, ste);
+			return;
+		}
+		name.top = new Binding(depth, frame.size(), name.top);
+		frame.add(ste);
+		frameNames.get(depth).add(name);
+	}
+
+	/**
+	 * Open a scope nested in the current one.
+	 */
+	void enter() {
+		frames.add(new ArrayList<SymbolTableEntry>());
+		frameNames.add(new ArrayList<Name>());
+	}
+
+	/**
+	 * Close the innermost scope, uncovering whatever its names shadowed.
+	 */
+	void exit() {
+		int depth = depth();
+		for (Name n : frameNames.get(depth)) {
+			n.top = n.top.next;
+			if (n.top == null) names.remove(n.text);
+		}
+		frames.remove(depth);
+		frameNames.remove(depth);
+	}
+
+	private int depth() {
+		return frames.size() - 1;
+	}
+
+}
@@ -0,0 +1,131 @@
+package compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line options for {@link Compiler}.
+ *
+ * Usage: Compiler [options] file.uC ...
+ *
+ * <pre>
+ *   -o file             stream the assembly into file, one function at a time
+ *   --stream            (with -o) read, parse and generate code one function at a time too, so
+ *                       memory is bounded by the largest function; implies --rd-parser
+ *   --batch             compile every input to its own .asm file
+ *   -d dir              (batch) write .asm files under dir
+ *   -m manifest         (batch) read more inputs from manifest, one per line
+ *   -j jobs             (batch) compile up to jobs files at once
+ *   --codegen-jobs n    generate code for the functions of a file on n threads
+ *   --stats             report per-phase time and allocation as JSON on stderr
+ *   --stats=file        append the JSON report to file instead, one line per compilation
+ *   --cache dir         reuse the output of earlier compilations of the same source, stored in dir
+ *   --cache-size mb     evict least recently used cache entries beyond mb megabytes (default 256)
+ *   --full-ll           parse with full LL prediction only, skipping the faster SLL attempt
+ *   --hand-lexer        tokenize with the hand-written HandLexer instead of the generated lexer
+ *   --rd-parser         parse with the hand-written RecursiveDescentParser, building no parse tree
+ *   --compact-ast       (with --rd-parser or --stream) pack each function's AST into a compact
+ *                       array form as soon as it is parsed, inflating it again only while its
+ *                       code is generated; this trades the time to build every function's
+ *                       nodes twice for less memory while functions wait for code generation.
+ *                       Not for the ANTLR parser, which holds the whole program as tokens,
+ *                       parse tree and nodes before any could be packed
+ *   -O level            optimize the AST before generating code (default 0, none).
+ *                       Level 1 folds constants and drops if arms and loops that never run.
+ *                       Level 2 also inlines small functions and ones called once, makes
+ *                       recursion through tail calls into loops, makes other tail calls
+ *                       jump to the callee in the caller's frame, and moves code that is
+ *                       the same every time round a loop to before it.
+ *                       With --stream or --compact-ast, which never hold the whole program
+ *                       as nodes, level 2 does not inline.
+ * </pre>
+ */
+public class Options {
+
+	public String outFile = null;
+	public boolean batch = false;
+	public String outDir = null;
+	public int jobs = 1;
+	public int codegenJobs = 1;
+	public boolean stats = false;
+	public String statsFile = null;
+	public String cacheDir = null;
+	public long cacheSize = 256L << 20;
+	public boolean fullLL = false;
+	public boolean handLexer = false;
+	public boolean rdParser = false;
+	public boolean stream = false;
+	public boolean compactAst = false;
+	public int optLevel = 0;
+	public List<String> inputs = new ArrayList<String>(); //random access so a batch splits evenly across jobs
+
+	public static Options parse(String args[]) throws IOException {
+		Options o = new Options();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-o" : o.outFile = value(args, ++i); break;
+			case "--batch" : o.batch = true; break;
+			case "-d" : o.outDir = value(args, ++i); break;
+			case "-m" : o.inputs.addAll(readManifest(value(args, ++i))); break;
+			case "-j" : o.jobs = Integer.parseInt(value(args, ++i)); break;
+			case "--codegen-jobs" : o.codegenJobs = Integer.parseInt(value(args, ++i)); break;
+			case "--stats" : o.stats = true; break;
+			case "--cache" : o.cacheDir = value(args, ++i); break;
+			case "--cache-size" : o.cacheSize = Long.parseLong(value(args, ++i)) << 20; break;
+			case "--full-ll" : o.fullLL = true; break;
+			case "--hand-lexer" : o.handLexer = true; break;
+			case "--rd-parser" : o.rdParser = true; break;
+			case "--stream" : o.stream = true; break;
+			case "--compact-ast" : o.compactAst = true; break;
+			case "-O" : o.optLevel = Integer.parseInt(value(args, ++i)); break;
+			default :
+				if (args[i].startsWith("--stats=")) {
+					o.stats = true;
+					o.statsFile = args[i].substring("--stats=".length());
+					break;
+				}
+				if (args[i].startsWith("-")) throw new Error("Unknown option " + args[i]);
+				o.inputs.add(args[i]);
+			}
+		}
+		if (o.compactAst && !o.rdParser && !o.stream) throw new Error("--compact-ast needs --rd-parser");
+		return o;
+	}
+
+	/**
+	 * The options that change what the compiler writes, as part of the
+	 * {@link CompileCache} key. Options that only change how it gets there
+	 * (jobs, stats, output file) must not appear here.
+	 */
+	String cacheKey() {
+		if (optLevel <= 0) return "";
+		//--compact-ast turns inlining off
+		return (optLevel >= 2 && compactAst) ? "-O " + optLevel + " --compact-ast" : "-O " + optLevel;
+	}
+
+	/**
+	 * The value of the option before <code>args[i]</code>.
+	 */
+	private static String value(String args[], int i) {
+		if (i >= args.length) throw new Error("Missing value for " + args[i - 1]);
+		return args[i];
+	}
+
+	/**
+	 * A manifest lists one input per line; blank lines and lines starting with # are ignored.
+	 */
+	private static List<String> readManifest(String manifest) throws IOException {
+		List<String> inputs = new ArrayList<String>();
+		for (String line : Files.readAllLines(Paths.get(manifest))) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				inputs.add(line);
+			}
+		}
+		return inputs;
+	}
+
+}
@@ -12,8 +12,6 @@ import org.antlr.v4.gui.TreeViewer;
 
 public class ParseTreeViewer {
 
-	static public SymbolTable symbolTable = new SymbolTable();
-
 	public ParseTreeViewer() {
 		
 	}
@@ -28,7 +26,7 @@ public class ParseTreeViewer {
 			
 			MicroCParser parser = new MicroCParser(new CommonTokenStream(lexer));
 			
-			parser.setSymbolTable(symbolTable);
+			parser.setContext(new CompilationContext(System.out, new Options()));
 
 			// parser.setErrorHandler(new MyErrorStrategy());
 			
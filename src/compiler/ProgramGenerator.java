@@ -0,0 +1,327 @@
+package compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Generates random but valid uC programs for benchmarks and stress tests.
+ *
+ * Usage: ProgramGenerator [options]
+ *
+ * <pre>
+ *   --seed n          random seed (default 1); the same seed and knobs give the same program
+ *   --functions n     number of functions besides main (default 10)
+ *   --statements n    statements per function, counting the bodies of ifs and whiles (default 50)
+ *   --expr-depth n    maximum nesting of binary operators in an expression (default 3)
+ *   --nesting n       maximum nesting of ifs and whiles (default 3)
+ *   --pointers p      probability of pointer and cast operations, 0 to 1 (default 0.1)
+ *   --floats p        fraction of float variables, parameters and values, 0 to 1 (default 0.3)
+ *   --trips n         iterations of every while loop (default 4)
+ *   --globals n       extra int globals g0..g(n-1), written instead of sink (default 0)
+ *   -o file           write the program to file instead of stdout
+ * </pre>
+ *
+ * Programs always terminate: loops count up to a fixed trip count, function
+ * i only calls function i-1, and divisors are non-zero literals. They avoid
+ * what the compiler does not support, such as reading a global variable.
+ * Function i is reached through the call chain from main, so every
+ * function runs once when the program is simulated.
+ */
+public class ProgramGenerator {
+
+	private static final int INTS = 4;
+	private static final int FLOATS = 4;
+	private static final int MAX_PARAMS = 3;
+	private static final int MAX_BODY = 8; //statements in one if/while body, before nesting
+	private static final int HEAP_WORDS = 4;
+
+	public long seed = 1;
+	public int functions = 10;
+	public int statements = 50;
+	public int exprDepth = 3;
+	public int nesting = 3;
+	public double pointers = 0.1;
+	public double floats = 0.3;
+	public int trips = 4;
+	public int globals = 0;
+
+	private Random random;
+	private PrintStream out;
+	private boolean[] returnsFloat;
+	private boolean[][] paramFloat;
+
+	public static void main(String args[]) throws IOException {
+		ProgramGenerator g = new ProgramGenerator();
+		String outFile = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--seed" : g.seed = Long.parseLong(args[++i]); break;
+			case "--functions" : g.functions = Integer.parseInt(args[++i]); break;
+			case "--statements" : g.statements = Integer.parseInt(args[++i]); break;
+			case "--expr-depth" : g.exprDepth = Integer.parseInt(args[++i]); break;
+			case "--nesting" : g.nesting = Integer.parseInt(args[++i]); break;
+			case "--pointers" : g.pointers = Double.parseDouble(args[++i]); break;
+			case "--floats" : g.floats = Double.parseDouble(args[++i]); break;
+			case "--trips" : g.trips = Integer.parseInt(args[++i]); break;
+			case "--globals" : g.globals = Integer.parseInt(args[++i]); break;
+			case "-o" : outFile = args[++i]; break;
+			default : throw new Error("Unknown option " + args[i]);
+			}
+		}
+
+		if (outFile == null) {
+			g.generate(System.out);
+			System.out.flush();
+		} else {
+			try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16))) {
+				g.generate(out);
+			}
+		}
+	}
+
+	/**
+	 * Generate a program as a string. Fine for benchmark inputs; use
+	 * {@link #generate(PrintStream)} for very large programs.
+	 */
+	public String generate() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(bytes);
+		generate(ps);
+		ps.flush();
+		return bytes.toString();
+	}
+
+	/**
+	 * Write a program to <code>out</code>, one statement at a time.
+	 */
+	public void generate(PrintStream out) {
+		this.random = new Random(seed);
+		this.out = out;
+
+		returnsFloat = new boolean[functions];
+		paramFloat = new boolean[functions][];
+		for (int f = 0; f < functions; f++) {
+			returnsFloat[f] = chance(floats);
+			paramFloat[f] = new boolean[random.nextInt(MAX_PARAMS + 1)];
+			for (int p = 0; p < paramFloat[f].length; p++) {
+				paramFloat[f][p] = chance(floats);
+			}
+		}
+
+		out.println("/* generated by ProgramGenerator --seed " + seed + " --functions " + functions
+				+ " --statements " + statements + " --expr-depth " + exprDepth + " --nesting " + nesting
+				+ " --pointers " + pointers + " --floats " + floats + " --trips " + trips
+				+ ((globals > 0) ? " --globals " + globals : "") + " */");
+		out.println("int sink;");
+		for (int g = 0; g < globals; g++) {
+			out.println("int g" + g + ";");
+		}
+		out.println();
+
+		for (int f = 0; f < functions; f++) {
+			function(f);
+		}
+		main();
+	}
+
+	private void function(int f) {
+		out.print((returnsFloat[f] ? "float" : "int") + " f" + f + "(");
+		for (int p = 0; p < paramFloat[f].length; p++) {
+			out.print(((p > 0) ? ", " : "") + (paramFloat[f][p] ? "float" : "int") + " a" + p);
+		}
+		out.println(") {");
+		declareLocals();
+
+		for (int i = 0; i < INTS; i++) {
+			out.println("\ti" + i + " = " + intLiteral() + ";");
+		}
+		for (int i = 0; i < FLOATS; i++) {
+			out.println("\tx" + i + " = " + floatLiteral() + ";");
+		}
+		for (int p = 0; p < paramFloat[f].length; p++) {
+			out.println("\t" + (paramFloat[f][p] ? "x" : "i") + random.nextInt(paramFloat[f][p] ? FLOATS : INTS) + " = a" + p + ";");
+		}
+		out.println("\tp = &i0;");
+		out.println("\tq = &x0;");
+		out.println("\th = malloc(" + (4 * HEAP_WORDS) + ");");
+		for (int i = 0; i < HEAP_WORDS; i++) {
+			out.println("\th[" + i + "] = " + intLiteral() + ";");
+		}
+
+		int budget = statements;
+		if (f > 0) {
+			out.println("\t" + (returnsFloat[f - 1] ? "x" : "i") + random.nextInt(INTS) + " = " + call(f - 1) + ";");
+			budget--;
+		}
+		block(budget, 0, "\t");
+
+		out.println("\tfree(h);");
+		out.println("\treturn " + var(returnsFloat[f]) + ";");
+		out.println("}");
+		out.println();
+	}
+
+	private void main() {
+		out.println("int main() {");
+		declareLocals();
+		if (functions > 0) {
+			out.println("\t" + (returnsFloat[functions - 1] ? "x0" : "i0") + " = " + call(functions - 1) + ";");
+			out.println("\tprint(" + (returnsFloat[functions - 1] ? "x0" : "i0") + ");");
+		}
+		out.println("\treturn 0;");
+		out.println("}");
+	}
+
+	private void declareLocals() {
+		for (int i = 0; i < INTS; i++) {
+			out.println("\tint i" + i + ";");
+		}
+		for (int i = 0; i < FLOATS; i++) {
+			out.println("\tfloat x" + i + ";");
+		}
+		for (int c = 0; c < nesting; c++) {
+			out.println("\tint c" + c + ";");
+		}
+		out.println("\tint * p;");
+		out.println("\tfloat * q;");
+		out.println("\tint * h;");
+	}
+
+	/**
+	 * Emit <code>count</code> statements, counting everything inside ifs and whiles.
+	 */
+	private void block(int count, int depth, String indent) {
+		while (count > 0) {
+			int kind = random.nextInt(10);
+			if (kind < 2 && depth < nesting && count >= 2) {
+				int body = 1 + random.nextInt(Math.min(count - 1, MAX_BODY));
+				count -= 1 + body;
+				if (kind == 0) {
+					whileStmt(body, depth, indent);
+				} else {
+					ifStmt(body, depth, indent);
+				}
+			} else {
+				out.println(indent + simpleStmt() + ";");
+				count--;
+			}
+		}
+	}
+
+	private void whileStmt(int body, int depth, String indent) {
+		String c = "c" + depth;
+		out.println(indent + c + " = 0;");
+		out.println(indent + "while (" + c + " < " + trips + ") {");
+		block(body, depth + 1, indent + "\t");
+		out.println(indent + "\t" + c + " = " + c + " + 1;");
+		out.println(indent + "}");
+	}
+
+	private void ifStmt(int body, int depth, String indent) {
+		out.println(indent + "if (" + cond() + ") {");
+		int elseBody = (body > 1 && chance(0.5)) ? random.nextInt(body) : 0;
+		block(body - elseBody, depth + 1, indent + "\t");
+		if (elseBody > 0) {
+			out.println(indent + "} else {");
+			block(elseBody, depth + 1, indent + "\t");
+		}
+		out.println(indent + "}");
+	}
+
+	private String simpleStmt() {
+		if (chance(pointers)) {
+			switch (random.nextInt(5)) {
+			case 0 : return "*p = " + expr(false, exprDepth);
+			case 1 : return "*q = " + expr(true, exprDepth);
+			case 2 : return "h[" + random.nextInt(HEAP_WORDS) + "] = " + expr(false, exprDepth);
+			case 3 : return "p = &i" + random.nextInt(INTS);
+			default : return "q = &x" + random.nextInt(FLOATS);
+			}
+		}
+		int kind = random.nextInt(50);
+		if (kind == 0) {
+			return "print(" + var(chance(floats)) + ")";
+		}
+		if (kind == 1) {
+			return ((globals > 0) ? "g" + random.nextInt(globals) : "sink") + " = " + expr(false, exprDepth);
+		}
+		boolean f = chance(floats);
+		return var(f) + " = " + expr(f, exprDepth);
+	}
+
+	private String cond() {
+		String[] ops = {"<", "<=", ">", ">=", "==", "!="};
+		boolean f = chance(floats);
+		return expr(f, Math.min(exprDepth, 1)) + " " + ops[random.nextInt(ops.length)] + " " + expr(f, Math.min(exprDepth, 1));
+	}
+
+	/**
+	 * An expression of the given type with at most <code>depth</code> nested operators.
+	 *
+	 * The leftmost operand is never a cast: a cast node has no type of its own
+	 * and binary and unary operators take their type from their left child.
+	 */
+	private String expr(boolean f, int depth) {
+		if (depth == 0 || chance(0.3)) {
+			return leaf(f, false);
+		}
+		String[] ops = {"+", "-", "*", "/"};
+		String op = ops[random.nextInt(ops.length)];
+		String left = expr(f, depth - 1);
+		String right;
+		if (op.equals("/")) {
+			right = f ? floatLiteral() : String.valueOf(1 + random.nextInt(9));
+		} else if (chance(0.5)) {
+			right = leaf(f, true);
+		} else {
+			right = expr(f, depth - 1);
+		}
+		return "(" + left + " " + op + " " + right + ")";
+	}
+
+	private String leaf(boolean f, boolean allowCast) {
+		if (chance(pointers)) {
+			//a float read of h[] is a cast, so it only goes where a cast can
+			switch (random.nextInt(allowCast ? 3 : (f ? 1 : 2))) {
+			case 0 : return f ? "*q" : "*p";
+			case 1 : return f ? "((float) h[" + random.nextInt(HEAP_WORDS) + "])" : "h[" + random.nextInt(HEAP_WORDS) + "]";
+			default : return f ? "((float) i" + random.nextInt(INTS) + ")" : "((int) x" + random.nextInt(FLOATS) + ")";
+			}
+		}
+		switch (random.nextInt(6)) {
+		case 0 : return f ? floatLiteral() : intLiteral();
+		case 1 : return "(-" + var(f) + ")";
+		default : return var(f);
+		}
+	}
+
+	private String call(int f) {
+		StringBuilder sb = new StringBuilder("f" + f + "(");
+		for (int p = 0; p < paramFloat[f].length; p++) {
+			if (p > 0) sb.append(", ");
+			sb.append(expr(paramFloat[f][p], Math.min(exprDepth, 1)));
+		}
+		return sb.append(")").toString();
+	}
+
+	private String var(boolean f) {
+		return f ? "x" + random.nextInt(FLOATS) : "i" + random.nextInt(INTS);
+	}
+
+	private String intLiteral() {
+		return String.valueOf(random.nextInt(100));
+	}
+
+	private String floatLiteral() {
+		return random.nextInt(10) + "." + (1 + random.nextInt(9));
+	}
+
+	private boolean chance(double p) {
+		return random.nextDouble() < p;
+	}
+
+}
@@ -0,0 +1,472 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.antlr.v4.runtime.Token;
+
+import ast.*;
+import compiler.Scope.FunctionSymbolTableEntry;
+
+/**
+ * A hand-written front end for uC that builds the same AST and symbol table
+ * as the actions in MicroC.g4, straight from the tokens of a
+ * {@link HandLexer}, without building a parse tree or going through the
+ * ANTLR runtime.
+ *
+ * Statements and declarations are parsed by recursive descent, one method
+ * per grammar rule. Expressions are parsed by a Pratt loop in
+ * {@link #expr(int)}: <code>-</code> and casts bind everything to their
+ * right, as <code>'-' expr</code> and <code>'(' type ')' expr</code> do in
+ * the grammar, and subscripts bind to the innermost lval, as ANTLR's greedy
+ * loop in <code>array_expr</code> does.
+ *
+ * The first syntax error ends the parse with an Error; there is no recovery.
+ */
+public class RecursiveDescentParser {
+
+	private static final int IDENTIFIER = MicroCLexer.IDENTIFIER;
+	private static final int INT_LITERAL = MicroCLexer.INT_LITERAL;
+	private static final int FLOAT_LITERAL = MicroCLexer.FLOAT_LITERAL;
+	private static final int STR_LITERAL = MicroCLexer.STR_LITERAL;
+
+	private static final int INT = HandLexer.type("int");
+	private static final int FLOAT = HandLexer.type("float");
+	private static final int VOID = HandLexer.type("void");
+	private static final int STRING = HandLexer.type("string");
+	private static final int IF = HandLexer.type("if");
+	private static final int ELSE = HandLexer.type("else");
+	private static final int WHILE = HandLexer.type("while");
+	private static final int RETURN = HandLexer.type("return");
+	private static final int READ = HandLexer.type("read");
+	private static final int PRINT = HandLexer.type("print");
+	private static final int MALLOC = HandLexer.type("malloc");
+	private static final int FREE = HandLexer.type("free");
+	private static final int SEMI = HandLexer.type(";");
+	private static final int COMMA = HandLexer.type(",");
+	private static final int ASSIGN = HandLexer.type("=");
+	private static final int LPAREN = HandLexer.type("(");
+	private static final int RPAREN = HandLexer.type(")");
+	private static final int LBRACE = HandLexer.type("{");
+	private static final int RBRACE = HandLexer.type("}");
+	private static final int LBRACKET = HandLexer.type("[");
+	private static final int RBRACKET = HandLexer.type("]");
+	private static final int STAR = HandLexer.type("*");
+	private static final int SLASH = HandLexer.type("/");
+	private static final int PLUS = HandLexer.type("+");
+	private static final int MINUS = HandLexer.type("-");
+	private static final int AMP = HandLexer.type("&");
+	private static final int[] CMPOPS = {
+		HandLexer.type("<"), HandLexer.type("<="), HandLexer.type(">="),
+		HandLexer.type("=="), HandLexer.type("!="), HandLexer.type(">"),
+	};
+
+	/** Binding powers of the binary operators: addop binds looser than mulop */
+	private static final int ADD_BP = 1;
+	private static final int MUL_BP = 2;
+
+	private final HandLexer lexer;
+	private final CompilationContext ctx;
+	private final SymbolTable st;
+
+	private Consumer<FunctionNode> sink; //takes each function as it is parsed, if set
+
+	private int la; //type of the current token
+
+	public RecursiveDescentParser(HandLexer lexer, CompilationContext ctx) {
+		this.lexer = lexer;
+		this.ctx = ctx;
+		this.st = ctx.getSymbolTable();
+		next();
+	}
+
+	/**
+	 * Hand every function to <code>sink</code> as soon as it has been parsed,
+	 * instead of collecting them into the program's AST, so a caller can
+	 * generate its code and let it go before the next one is read.
+	 */
+	public void setFunctionSink(Consumer<FunctionNode> sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * <code>program : decls functions</code>
+	 *
+	 * The declarations and the functions are told apart only after the
+	 * parameter list: a ';' makes a func_decl, a '{' starts the functions.
+	 *
+	 * @return the AST of the program, without its functions if there is a
+	 * function sink
+	 */
+	public FunctionListNode program() {
+		List<FunctionNode> functions = new ArrayList<FunctionNode>();
+		boolean inDecls = true;
+		while (la != Token.EOF) {
+			if (inDecls && la == STRING) {
+				strDecl();
+				continue;
+			}
+			Scope.Type type = type();
+			String name = id();
+			if (inDecls && la == SEMI) {
+				next();
+				st.addVariable(type, name);
+				continue;
+			}
+			expect(LPAREN);
+			LinkedList<String> names = new LinkedList<String>();
+			LinkedList<Scope.Type> types = new LinkedList<Scope.Type>();
+			params(names, types);
+			expect(RPAREN);
+			if (inDecls && la == SEMI) {
+				next();
+				st.addFunction(type, name, types);
+				continue;
+			}
+			inDecls = false;
+			FunctionNode function = function(type, name, names, types);
+			if (sink != null) {
+				sink.accept(function);
+			} else {
+				functions.add(function);
+			}
+		}
+		return new FunctionListNode(functions);
+	}
+
+	/**
+	 * <code>str_decl : 'string' id '=' STR_LITERAL ';'</code>
+	 */
+	private void strDecl() {
+		expect(STRING);
+		String name = id();
+		expect(ASSIGN);
+		String value = lexer.text();
+		expect(STR_LITERAL);
+		expect(SEMI);
+		st.addVariable(Scope.Type.of(Scope.InnerType.STRING), name, value);
+	}
+
+	/**
+	 * <code>type : base_type ('*')*</code>; func_type is the same thing, as
+	 * base_type already includes 'void'.
+	 */
+	private Scope.Type type() {
+		Scope.Type t;
+		if (la == INT) {
+			t = Scope.Type.of(Scope.InnerType.INT);
+		} else if (la == FLOAT) {
+			t = Scope.Type.of(Scope.InnerType.FLOAT);
+		} else if (la == VOID) {
+			t = Scope.Type.of(Scope.InnerType.VOID);
+		} else {
+			throw syntaxError("type");
+		}
+		next();
+		while (la == STAR) {
+			next();
+			t = Scope.Type.pointerToType(t);
+		}
+		return t;
+	}
+
+	private boolean atType() {
+		return la == INT || la == FLOAT || la == VOID;
+	}
+
+	private String id() {
+		String name = (la == IDENTIFIER) ? lexer.text() : null;
+		expect(IDENTIFIER);
+		return name;
+	}
+
+	/**
+	 * <code>params : (param (',' param)*)?</code>
+	 */
+	private void params(List<String> names, List<Scope.Type> types) {
+		if (!atType()) return;
+		do {
+			types.add(type());
+			names.add(id());
+		} while (accept(COMMA));
+	}
+
+	/**
+	 * The rest of <code>function</code>, from the '{' on, with the same
+	 * symbol table actions as the grammar.
+	 */
+	private FunctionNode function(Scope.Type returnType, String name, LinkedList<String> names, LinkedList<Scope.Type> types) {
+		FunctionSymbolTableEntry ste = (FunctionSymbolTableEntry) st.getSymbolTableEntry(name);
+		if ((ste == null) || !ste.isDefined()) {
+			st.addFunction(returnType, name, types);
+			ste = (FunctionSymbolTableEntry) st.getSymbolTableEntry(name);
+			ste.setDefined(true);
+		} else {
+			throw new Error("Function already defined");
+		}
+		st.pushScope(name);
+		for (int i = types.size() - 1; i >= 0; --i) {
+			st.addArgument(types.get(i), names.get(i));
+		}
+
+		expect(LBRACE);
+		while (atType()) {
+			Scope.Type type = type();
+			String var = id();
+			expect(SEMI);
+			st.addVariable(type, var);
+		}
+		StatementListNode body = statements();
+		expect(RBRACE);
+
+		LocalScope funcScope = (LocalScope) st.currentScope();
+		FunctionNode node = new FunctionNode(body, name, funcScope);
+		st.popScope();
+		return node;
+	}
+
+	/**
+	 * <code>statements : statement*</code>, up to the closing '}'
+	 */
+	private StatementListNode statements() {
+		List<StatementNode> statements = new ArrayList<StatementNode>();
+		while (la != RBRACE && la != Token.EOF) {
+			statements.add(statement());
+		}
+		return new StatementListNode(statements);
+	}
+
+	private StatementNode statement() {
+		if (la == IF) return ifStmt();
+		if (la == WHILE) return whileStmt();
+
+		StatementNode node;
+		if (la == READ) {
+			next();
+			expect(LPAREN);
+			node = new ReadNode(new VarNode(id(), ctx));
+			expect(RPAREN);
+		} else if (la == PRINT) {
+			next();
+			expect(LPAREN);
+			node = new WriteNode(expr());
+			expect(RPAREN);
+		} else if (la == RETURN) {
+			next();
+			ExpressionNode value = (la == SEMI) ? null : expr();
+			node = new ReturnNode(value, st.getFunctionSymbol(st.currentScope().getName()));
+		} else if (la == MALLOC || la == FREE) {
+			node = callExpr(null);
+		} else if (la == IDENTIFIER) {
+			String name = id();
+			if (la == LPAREN) {
+				node = callExpr(name);
+			} else {
+				node = assign(subscripts(new VarNode(name, ctx)));
+			}
+		} else if (la == STAR) {
+			node = assign(subscripts(ptrExpr()));
+		} else {
+			throw syntaxError("statement");
+		}
+		expect(SEMI);
+		return node;
+	}
+
+	/**
+	 * <code>assign_stmt : lhs '=' expr</code>, after the lhs
+	 */
+	private AssignNode assign(ExpressionNode lhs) {
+		expect(ASSIGN);
+		return new AssignNode(lhs, expr());
+	}
+
+	/**
+	 * <code>if_stmt : 'if' '(' cond ')' '{' statements '}' ('else' '{' statements '}')?</code>
+	 */
+	private IfStatementNode ifStmt() {
+		expect(IF);
+		expect(LPAREN);
+		CondNode cond = cond();
+		expect(RPAREN);
+		expect(LBRACE);
+		StatementListNode tlist = statements();
+		expect(RBRACE);
+		StatementListNode elist = null;
+		if (accept(ELSE)) {
+			expect(LBRACE);
+			elist = statements();
+			expect(RBRACE);
+		}
+		return new IfStatementNode(cond, tlist, elist);
+	}
+
+	private WhileNode whileStmt() {
+		expect(WHILE);
+		expect(LPAREN);
+		CondNode cond = cond();
+		expect(RPAREN);
+		expect(LBRACE);
+		StatementListNode body = statements();
+		expect(RBRACE);
+		return new WhileNode(cond, body);
+	}
+
+	private CondNode cond() {
+		ExpressionNode left = expr();
+		String op = HandLexer.literal(la);
+		boolean found = false;
+		for (int cmp : CMPOPS) {
+			found |= (la == cmp);
+		}
+		if (!found) throw syntaxError("comparison");
+		next();
+		return new CondNode(left, expr(), op);
+	}
+
+	private ExpressionNode expr() {
+		return expr(0);
+	}
+
+	/**
+	 * The Pratt loop for <code>expr</code> and <code>term</code>: a primary
+	 * followed by every binary operator that binds tighter than
+	 * <code>minBp</code>, all left associative.
+	 */
+	private ExpressionNode expr(int minBp) {
+		ExpressionNode left = primary();
+		while (true) {
+			int bp;
+			if (la == PLUS || la == MINUS) {
+				bp = ADD_BP;
+			} else if (la == STAR || la == SLASH) {
+				bp = MUL_BP;
+			} else {
+				return left;
+			}
+			if (bp <= minBp) return left;
+			String op = HandLexer.literal(la);
+			next();
+			left = new BinaryOpNode(left, expr(bp), op);
+		}
+	}
+
+	private ExpressionNode primary() {
+		if (la == INT_LITERAL) {
+			ExpressionNode node = new IntLitNode(lexer.text());
+			next();
+			return node;
+		}
+		if (la == FLOAT_LITERAL) {
+			ExpressionNode node = new FloatLitNode(lexer.text());
+			next();
+			return node;
+		}
+		if (la == MINUS) {
+			next();
+			return new UnaryOpNode(expr(), "-");
+		}
+		if (la == AMP) {
+			next();
+			return new AddrOfNode(arrayExpr());
+		}
+		if (la == LPAREN) {
+			next();
+			if (atType()) {
+				Scope.Type type = type();
+				expect(RPAREN);
+				return new CastExprNode(expr(), type);
+			}
+			ExpressionNode node = expr();
+			expect(RPAREN);
+			return node;
+		}
+		if (la == MALLOC || la == FREE) {
+			return callExpr(null);
+		}
+		if (la == IDENTIFIER) {
+			String name = id();
+			if (la == LPAREN) return callExpr(name);
+			return subscripts(new VarNode(name, ctx));
+		}
+		if (la == STAR) {
+			return subscripts(ptrExpr());
+		}
+		throw syntaxError("expression");
+	}
+
+	/**
+	 * <code>array_expr : lval ('[' expr ']')*</code>
+	 */
+	private ExpressionNode arrayExpr() {
+		if (la == STAR) return subscripts(ptrExpr());
+		return subscripts(new VarNode(id(), ctx));
+	}
+
+	/**
+	 * <code>ptr_expr : '*' primary</code>
+	 */
+	private ExpressionNode ptrExpr() {
+		expect(STAR);
+		return new PtrDerefNode(primary());
+	}
+
+	/**
+	 * The subscripts of an array_expr whose lval has been parsed.
+	 */
+	private ExpressionNode subscripts(ExpressionNode node) {
+		while (accept(LBRACKET)) {
+			ExpressionNode index = expr();
+			expect(RBRACKET);
+			node = new PtrDerefNode(new BinaryOpNode(node, new BinaryOpNode(index, new IntLitNode("4"), "*"), "+"));
+		}
+		return node;
+	}
+
+	/**
+	 * <code>call_expr</code>, given the name of the function if it has already
+	 * been read, or null for malloc and free.
+	 */
+	private AbstractCallNode callExpr(String name) {
+		if (name == null) {
+			boolean malloc = (la == MALLOC);
+			next();
+			expect(LPAREN);
+			ExpressionNode arg = expr();
+			expect(RPAREN);
+			return malloc ? new MallocNode(arg) : new FreeNode(arg);
+		}
+		expect(LPAREN);
+		List<ExpressionNode> args = new LinkedList<ExpressionNode>();
+		if (la != RPAREN) {
+			do {
+				args.add(expr());
+			} while (accept(COMMA));
+		}
+		expect(RPAREN);
+		return new CallNode(name, args, ctx);
+	}
+
+	private void next() {
+		la = lexer.scan();
+	}
+
+	private boolean accept(int type) {
+		if (la != type) return false;
+		next();
+		return true;
+	}
+
+	private void expect(int type) {
+		if (la != type) throw syntaxError(MicroCLexer.VOCABULARY.getDisplayName(type));
+		next();
+	}
+
+	private Error syntaxError(String expected) {
+		return new Error("line " + lexer.startLine + ":" + lexer.startCol + " syntax error: expected " + expected
+				+ " at " + ((la == Token.EOF) ? "<EOF>" : "'" + lexer.text() + "'"));
+	}
+
+}
@@ -1,5 +1,6 @@
 package compiler;
 
+import java.io.PrintStream;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -16,26 +17,57 @@ public abstract class Scope{
 		VOID
 	}
 
+	/**
+	 * A type. Types are hash-consed: there is exactly one instance of each
+	 * distinct type, got from {@link #of} and {@link #pointerToType}, so
+	 * types compare with <code>==</code> in constant time. A pointer type is
+	 * cached on its pointee, so asking for it again allocates nothing.
+	 */
 	static public class Type {
 
-		public final InnerType type;
+		private static final Type[] basic = new Type[InnerType.values().length];
 
-		public Type(InnerType type) {
-			assert(type != InnerType.PTR);
-			this.type = type;
-			this.wrappedType = null;
+		static {
+			for (InnerType t : InnerType.values()) {
+				if (t != InnerType.PTR) basic[t.ordinal()] = new Type(t, null);
+			}
 		}
 
+		public final InnerType type;
+
+		final Type wrappedType;
+
+		private final int hash;
+		private volatile Type pointer; //the type of pointers to this type, once asked for
+
 		private Type(InnerType type, Type wrappedType) {
 			this.type = type;
 			this.wrappedType = wrappedType;
+			this.hash = (wrappedType == null) ? type.ordinal() : 31 * wrappedType.hash + type.ordinal();
 		}
 
-		public static Type pointerToType(Type wrappedType) {
-			return new Type(InnerType.PTR, wrappedType);
+		/**
+		 * The type <code>type</code>, which must not be PTR; use
+		 * {@link #pointerToType} for pointers.
+		 */
+		public static Type of(InnerType type) {
+			assert(type != InnerType.PTR);
+			return basic[type.ordinal()];
 		}
 
-		final Type wrappedType;
+		public static Type pointerToType(Type wrappedType) {
+			Type p = wrappedType.pointer;
+			if (p == null) {
+				synchronized (wrappedType) { //compilations on other threads share the types
+					p = wrappedType.pointer;
+					if (p == null) {
+						p = new Type(InnerType.PTR, wrappedType);
+						wrappedType.pointer = p;
+					}
+				}
+			}
+			return p;
+		}
 		
 		public Type getWrappedType() {
 			return wrappedType;
@@ -50,17 +82,17 @@ public abstract class Scope{
 			}
 		}
 
+		/**
+		 * Types are canonical, so equal types are the same instance.
+		 */
 		@Override
 		public boolean equals(Object other) {
-			if (other instanceof Type) {
-				if (type != InnerType.PTR) {
-					return this.type == ((Type) other).type;
-				} else {
-					return this.wrappedType.equals(((Type) other).getWrappedType());
-				}
-			} else {
-				return false;
-			}
+			return this == other;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
 		}
 	}
 
@@ -98,18 +130,36 @@ public abstract class Scope{
 	
 	public ErrorType addSymbol(Type type, String name) {
 		ErrorType retVal = checkSymbol(name);
-		table.put(name, genSymbol(type, name));
+		declare(type, name);
 		return retVal;
 	}
 
+	/**
+	 * Add a symbol without checking it against this scope and the ones
+	 * around it, for callers that have done that already.
+	 *
+	 * @return the new entry
+	 */
+	SymbolTableEntry declare(Type type, String name) {
+		SymbolTableEntry ste = genSymbol(type, name);
+		table.put(name, ste);
+		return ste;
+	}
+
 	abstract protected SymbolTableEntry genSymbol(Type type, String name);
 	
 	public ErrorType addSymbol(Type type, String name, String value) {
 		ErrorType retVal = checkSymbol(name);
-		table.put(name, genStringSymbol(type, name, value));
+		declare(type, name, value);
 		return retVal;
 	}
 
+	SymbolTableEntry declare(Type type, String name, String value) {
+		SymbolTableEntry ste = genStringSymbol(type, name, value);
+		table.put(name, ste);
+		return ste;
+	}
+
 	abstract protected StringSymbolTableEntry genStringSymbol(Type type, String name, String value);
 	
 	public Scope addSubScope(String name) {
@@ -119,6 +169,14 @@ public abstract class Scope{
 		return newScope;
 	}
 	
+	/**
+	 * Forget the scopes nested in this one, e.g. the scope of a function
+	 * whose code has already been streamed out.
+	 */
+	void dropSubScopes() {
+		subScopes.clear();
+	}
+	
 	public SymbolTableEntry getSymbolTableEntry(String name) {
 		SymbolTableEntry retval = null;
 
@@ -153,20 +211,20 @@ public abstract class Scope{
 		return ErrorType.NONE;
 	}
 	
-	public void printTable() {
-		printLocalTable();
+	public void printTable(PrintStream out) {
+		printLocalTable(out);
 		for (Scope st : subScopes) {
-			st.printTable();
+			st.printTable(out);
 		}
 	}
 	
-	protected void printLocalTable() {
-		System.out.println("; Symbol table " + name);
+	protected void printLocalTable(PrintStream out) {
+		out.println("; Symbol table " + name);
 		
 		for (SymbolTableEntry ste : table.values())
-			System.out.println(ste);
+			out.println(ste);
 			
-		System.out.println();
+		out.println();
 	}
 	
 	static public class SymbolTableEntry {
@@ -1,5 +1,6 @@
 package compiler;
 
+import java.io.PrintStream;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Stack;
@@ -11,19 +12,57 @@ public class SymbolTable {
 	private Scope globalScope;
 	private Stack<Scope> scopeStack;
 	private LinkedList<String> errors;
+	private NameResolver resolver; //the names declared in the scopes on scopeStack
+	private PrintStream out; //where diagnostics and the table dump are written
+	private int stringBase;
+	private int globalBase;
 
 	public SymbolTable() {
-		this(0x10000000, 0x20000000);
+		this(System.out);
+	}
+
+	public SymbolTable(PrintStream out) {
+		this(0x10000000, 0x20000000, out);
 	}
 
 	public SymbolTable(int stringBase, int globalBase) {
+		this(stringBase, globalBase, System.out);
+	}
+
+	public SymbolTable(int stringBase, int globalBase, PrintStream out) {
+		this.out = out;
+		this.stringBase = stringBase;
+		this.globalBase = globalBase;
+		reset();
+	}
+
+	/**
+	 * Throw away every scope, symbol and error added so far, leaving the
+	 * table as it was when it was created. Used when the parser gives up on
+	 * a fast parse and starts again from the first token.
+	 */
+	void reset() {
 		setGlobalScope(new GlobalScope(stringBase, globalBase));
 
 		scopeStack = new Stack<Scope>();
 		scopeStack.push(getGlobalScope());
+		resolver = new NameResolver();
+		resolver.enter();
 
 		errors = new LinkedList<String>();
 	}
+
+	/**
+	 * Send diagnostics somewhere else from now on, e.g. a buffer while a parse
+	 * that may be rolled back is running.
+	 *
+	 * @return the stream diagnostics went to before
+	 */
+	PrintStream setOut(PrintStream out) {
+		PrintStream old = this.out;
+		this.out = out;
+		return old;
+	}
 	
 	public Scope currentScope() {
 		return scopeStack.peek();
@@ -31,15 +70,19 @@ public class SymbolTable {
 	
 	public void addVariable(Scope.Type type, String name, String value) {
 		assert(type.type == Scope.InnerType.STRING);
-		Scope.ErrorType e = currentScope().addSymbol(type, name, value);
+		NameResolver.Name n = resolver.intern(name);
+		Scope.ErrorType e = resolver.check(n);
+		resolver.bind(n, currentScope().declare(type, n.text, value));
 	    processError(name, e);
 	}
 
 	public void addVariable(Scope.Type type, String name) {
 		assert (type.type != Scope.InnerType.STRING);
-		Scope.ErrorType e = currentScope().addSymbol(type, name);
+		NameResolver.Name n = resolver.intern(name);
+		Scope.ErrorType e = resolver.check(n);
+		resolver.bind(n, currentScope().declare(type, n.text));
 		if (e != Scope.ErrorType.NONE) {
-			System.out.println("Found " + e + " adding " + type + " " + name);
+			out.println("Found " + e + " adding " + type + " " + name);
 		}
 	    processError(name, e);
 	}
@@ -48,19 +91,23 @@ public class SymbolTable {
 		assert(currentScope() instanceof LocalScope);
 
 		LocalScope ls = (LocalScope) currentScope();
-		Scope.ErrorType e = ls.addArgument(type, name);
+		NameResolver.Name n = resolver.intern(name);
+		Scope.ErrorType e = resolver.check(n);
+		resolver.bind(n, ls.declareArgument(type, n.text));
 		processError(name, e);
 	}
 
 	public void addFunction(Scope.Type returnType, String name, List<Scope.Type> argTypes) {
 		assert(currentScope() instanceof GlobalScope);
 		GlobalScope gs = (GlobalScope) currentScope();
-		Scope.ErrorType e = gs.addFunctionSymbol(returnType, name, argTypes);
+		NameResolver.Name n = resolver.intern(name);
+		Scope.ErrorType e = resolver.check(n);
+		resolver.bind(n, gs.declareFunction(returnType, n.text, argTypes));
 		processError(name, e);
 	}
 
 	public Scope.SymbolTableEntry getSymbolTableEntry(String name) {
-		return currentScope().getSymbolTableEntry(name);
+		return resolver.resolve(name);
 	}
 
 	public Scope.FunctionSymbolTableEntry getFunctionSymbol(String name) {
@@ -75,9 +122,11 @@ public class SymbolTable {
 	public void pushScope(String name) {
 		Scope s = currentScope().addSubScope(name);
 		scopeStack.push(s);
+		resolver.enter();
 	}
 	
 	public void popScope() {
+		resolver.exit();
 		scopeStack.pop();
 	}
 	
@@ -91,19 +140,19 @@ public class SymbolTable {
 			case ERROR :
 				errors.add("DECLARATION ERROR " + name);
 				printErrors();
-				System.exit(1);
-				break;
+				//Don't exit here: in batch mode one bad file must not kill the whole run
+				throw new Error("DECLARATION ERROR " + name);
 		}
 	}
 	
 	public void printErrors() {
 		for (String error : errors) {
-			System.out.println(error);
+			out.println(error);
 		}
 	}
 	
 	public void printTable() {
-		getGlobalScope().printTable();
+		getGlobalScope().printTable(out);
 	}
 	
 	public Scope getGlobalScope() {
@@ -117,10 +166,10 @@ public class SymbolTable {
 	public static void main(String args[]) {
 		SymbolTable st =  new SymbolTable();
 
-		st.addVariable(new Scope.Type(Scope.InnerType.INT), "x");
-		st.addVariable(new Scope.Type(Scope.InnerType.INT), "y");
-		st.addVariable(new Scope.Type(Scope.InnerType.STRING), "z", "Hello");
-		st.addVariable(new Scope.Type(Scope.InnerType.STRING), "w", "World");
+		st.addVariable(Scope.Type.of(Scope.InnerType.INT), "x");
+		st.addVariable(Scope.Type.of(Scope.InnerType.INT), "y");
+		st.addVariable(Scope.Type.of(Scope.InnerType.STRING), "z", "Hello");
+		st.addVariable(Scope.Type.of(Scope.InnerType.STRING), "w", "World");
 
 		st.printTable();
 	}
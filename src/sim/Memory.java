@@ -0,0 +1,42 @@
+package sim;
+
+/**
+ * Word-addressed memory for the {@link Simulator}, covering the full 32-bit
+ * address space. Pages of 4KB are allocated the first time they are touched,
+ * through a two-level table, so stack, globals and heap can sit far apart.
+ * Floats are stored as their raw bits.
+ */
+class Memory {
+
+	private static final int PAGE_BITS = 12;
+	private static final int TABLE_BITS = 10;
+	private static final int WORDS = 1 << (PAGE_BITS - 2);
+
+	private int[][][] table = new int[1 << (32 - PAGE_BITS - TABLE_BITS)][][];
+
+	int load(int address) {
+		int[] page = page(address);
+		return page[(address >>> 2) & (WORDS - 1)];
+	}
+
+	void store(int address, int value) {
+		int[] page = page(address);
+		page[(address >>> 2) & (WORDS - 1)] = value;
+	}
+
+	private int[] page(int address) {
+		if ((address & 3) != 0) {
+			throw new Error(String.format("unaligned access at 0x%x", address));
+		}
+		int[][] pages = table[address >>> (PAGE_BITS + TABLE_BITS)];
+		if (pages == null) {
+			pages = table[address >>> (PAGE_BITS + TABLE_BITS)] = new int[1 << TABLE_BITS][];
+		}
+		int[] page = pages[(address >>> PAGE_BITS) & ((1 << TABLE_BITS) - 1)];
+		if (page == null) {
+			page = pages[(address >>> PAGE_BITS) & ((1 << TABLE_BITS) - 1)] = new int[WORDS];
+		}
+		return page;
+	}
+
+}
@@ -0,0 +1,270 @@
+package sim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An assembly program decoded for the {@link Simulator}.
+ *
+ * Reads the text the classes in <code>assembly.instructions</code> print: a
+ * <code>.section .text</code> of labels and instructions, followed by a
+ * <code>.section .strings</code> of <code>address "text"</code> entries.
+ * Lines starting with <code>;</code> are comments.
+ *
+ * Each instruction is decoded once into four parallel int arrays (opcode
+ * and three operands), with registers turned into register file indices and
+ * labels into instruction indices, so the simulator never looks at a string.
+ *
+ * Integer registers: x0 is 0, sp 1, fp 2, ra 3 and tN is 3 + N.
+ * Float registers: fN is N.
+ */
+public class Program {
+
+	static final int LI = 0;
+	static final int LA = 1;
+	static final int ADD = 2;
+	static final int SUB = 3;
+	static final int MUL = 4;
+	static final int DIV = 5;
+	static final int ADDI = 6;
+	static final int NEG = 7;
+	static final int MV = 8;
+	static final int LW = 9;
+	static final int SW = 10;
+	static final int FLW = 11;
+	static final int FSW = 12;
+	static final int FADD = 13;
+	static final int FSUB = 14;
+	static final int FMUL = 15;
+	static final int FDIV = 16;
+	static final int FNEG = 17;
+	static final int FMV = 18;
+	static final int FIMM = 19;
+	static final int FLT = 20;
+	static final int FLE = 21;
+	static final int FEQ = 22;
+	static final int IMOVF = 23;
+	static final int FMOVI = 24;
+	static final int BEQ = 25;
+	static final int BNE = 26;
+	static final int BLT = 27;
+	static final int BLE = 28;
+	static final int BGT = 29;
+	static final int BGE = 30;
+	static final int J = 31;
+	static final int JR = 32;
+	static final int RET = 33;
+	static final int PUTI = 34;
+	static final int PUTF = 35;
+	static final int PUTS = 36;
+	static final int GETI = 37;
+	static final int GETF = 38;
+	static final int MALLOC = 39;
+	static final int FREE = 40;
+	static final int HALT = 41;
+
+	static final int X0 = 0;
+	static final int SP = 1;
+	static final int FP = 2;
+	static final int RA = 3;
+
+	int size;
+	int[] op;
+	int[] a;
+	int[] b;
+	int[] c;
+	int intRegisters = RA + 1; //size of the integer register file the program needs
+	int floatRegisters = 1;
+	Map<Integer, String> strings = new HashMap<Integer, String>();
+
+	private int registers;
+	private List<String> text = new ArrayList<String>();
+	private List<Integer> lines = new ArrayList<Integer>();
+	private Map<String, Integer> labels = new HashMap<String, Integer>();
+
+	/**
+	 * Load the program in <code>file</code>.
+	 *
+	 * @param registers number of t and of f registers the program may use; 0 for no limit
+	 */
+	public static Program load(Path file, int registers) throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(file)) {
+			return load(in, registers);
+		}
+	}
+
+	public static Program load(BufferedReader in, int registers) throws IOException {
+		Program p = new Program(registers);
+		boolean strings = false;
+		String line;
+		int lineNo = 0;
+		while ((line = in.readLine()) != null) {
+			lineNo++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith(";")) continue;
+			if (line.startsWith(".section")) {
+				strings = line.endsWith(".strings");
+				continue;
+			}
+			if (strings) {
+				int space = line.indexOf(' ');
+				String value = line.substring(space + 1).trim();
+				if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+					value = value.substring(1, value.length() - 1);
+				}
+				p.strings.put(Long.decode(line.substring(0, space)).intValue(), value);
+			} else if (line.endsWith(":")) {
+				if (p.labels.put(line.substring(0, line.length() - 1), p.text.size()) != null) {
+					throw new Error("line " + lineNo + ": duplicate label " + line);
+				}
+			} else {
+				p.text.add(line);
+				p.lines.add(lineNo);
+			}
+		}
+		p.decode();
+		return p;
+	}
+
+	private Program(int registers) {
+		this.registers = registers;
+	}
+
+	/**
+	 * @return number of instructions
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void decode() {
+		size = text.size();
+		op = new int[size];
+		a = new int[size];
+		b = new int[size];
+		c = new int[size];
+		for (int i = 0; i < size; i++) {
+			try {
+				decode(i, text.get(i));
+			} catch (RuntimeException | Error e) {
+				throw new Error("line " + lines.get(i) + ": " + text.get(i) + ": " + e.getMessage());
+			}
+		}
+		text = null;
+		lines = null;
+		labels = null;
+	}
+
+	private void decode(int i, String ins) {
+		int space = ins.indexOf(' ');
+		String mnemonic = (space < 0) ? ins : ins.substring(0, space);
+		String[] args = (space < 0) ? new String[0] : ins.substring(space + 1).split("\\s*,\\s*");
+
+		switch (mnemonic) {
+		case "LI" : set(i, LI, reg(args[0]), imm(args[1]), 0); break;
+		case "LA" : set(i, LA, reg(args[0]), imm(args[1]), 0); break;
+		case "ADD" : set(i, ADD, reg(args[0]), reg(args[1]), reg(args[2])); break;
+		case "SUB" : set(i, SUB, reg(args[0]), reg(args[1]), reg(args[2])); break;
+		case "MUL" : set(i, MUL, reg(args[0]), reg(args[1]), reg(args[2])); break;
+		case "DIV" : set(i, DIV, reg(args[0]), reg(args[1]), reg(args[2])); break;
+		case "ADDI" : set(i, ADDI, reg(args[0]), reg(args[1]), imm(args[2])); break;
+		case "NEG" : set(i, NEG, reg(args[0]), reg(args[1]), 0); break;
+		case "MV" : set(i, MV, reg(args[0]), reg(args[1]), 0); break;
+		case "LW" : loadStore(i, LW, reg(args[0]), args[1]); break;
+		case "SW" : loadStore(i, SW, reg(args[0]), args[1]); break;
+		case "FLW" : loadStore(i, FLW, freg(args[0]), args[1]); break;
+		case "FSW" : loadStore(i, FSW, freg(args[0]), args[1]); break;
+		case "FADD.S" : set(i, FADD, freg(args[0]), freg(args[1]), freg(args[2])); break;
+		case "FSUB.S" : set(i, FSUB, freg(args[0]), freg(args[1]), freg(args[2])); break;
+		case "FMUL.S" : set(i, FMUL, freg(args[0]), freg(args[1]), freg(args[2])); break;
+		case "FDIV.S" : set(i, FDIV, freg(args[0]), freg(args[1]), freg(args[2])); break;
+		case "FNEG.S" : set(i, FNEG, freg(args[0]), freg(args[1]), 0); break;
+		case "FMV.S" : set(i, FMV, freg(args[0]), freg(args[1]), 0); break;
+		case "FIMM.S" : set(i, FIMM, freg(args[0]), 0, Float.floatToRawIntBits(Float.parseFloat(args[1]))); break;
+		case "FLT.S" : set(i, FLT, reg(args[0]), freg(args[1]), freg(args[2])); break;
+		case "FLE.S" : set(i, FLE, reg(args[0]), freg(args[1]), freg(args[2])); break;
+		case "FEQ.S" : set(i, FEQ, reg(args[0]), freg(args[1]), freg(args[2])); break;
+		case "IMOVF.S" : set(i, IMOVF, freg(args[0]), reg(args[1]), 0); break;
+		case "FMOVI.S" : set(i, FMOVI, reg(args[0]), freg(args[1]), 0); break;
+		case "BEQ" : set(i, BEQ, reg(args[0]), reg(args[1]), label(args[2])); break;
+		case "BNE" : set(i, BNE, reg(args[0]), reg(args[1]), label(args[2])); break;
+		case "BLT" : set(i, BLT, reg(args[0]), reg(args[1]), label(args[2])); break;
+		case "BLE" : set(i, BLE, reg(args[0]), reg(args[1]), label(args[2])); break;
+		case "BGT" : set(i, BGT, reg(args[0]), reg(args[1]), label(args[2])); break;
+		case "BGE" : set(i, BGE, reg(args[0]), reg(args[1]), label(args[2])); break;
+		case "J" : set(i, J, 0, 0, label(args[0])); break;
+		case "JR" : set(i, JR, 0, 0, label(args[0])); break;
+		case "RET" : set(i, RET, 0, 0, 0); break;
+		case "PUTI" : set(i, PUTI, reg(args[0]), 0, 0); break;
+		case "PUTF" : set(i, PUTF, freg(args[0]), 0, 0); break;
+		case "PUTS" : set(i, PUTS, reg(args[0]), 0, 0); break;
+		case "GETI" : set(i, GETI, reg(args[0]), 0, 0); break;
+		case "GETF" : set(i, GETF, freg(args[0]), 0, 0); break;
+		case "MALLOC" : set(i, MALLOC, reg(args[0]), reg(args[1]), 0); break;
+		case "FREE" : set(i, FREE, reg(args[0]), 0, 0); break;
+		case "HALT" : set(i, HALT, 0, 0, 0); break;
+		default : throw new Error("unknown instruction " + mnemonic);
+		}
+	}
+
+	private void set(int i, int op, int a, int b, int c) {
+		this.op[i] = op;
+		this.a[i] = a;
+		this.b[i] = b;
+		this.c[i] = c;
+	}
+
+	/**
+	 * <code>off(base)</code> operands: b is the base register, c the offset.
+	 */
+	private void loadStore(int i, int op, int data, String address) {
+		int paren = address.indexOf('(');
+		if (paren < 0 || !address.endsWith(")")) throw new Error("bad address " + address);
+		set(i, op, data, reg(address.substring(paren + 1, address.length() - 1)), imm(address.substring(0, paren)));
+	}
+
+	private int reg(String r) {
+		switch (r) {
+		case "x0" : return X0;
+		case "sp" : return SP;
+		case "fp" : return FP;
+		case "ra" : return RA;
+		}
+		if (!r.startsWith("t")) throw new Error("not an integer register: " + r);
+		int n = number(r);
+		intRegisters = Math.max(intRegisters, RA + n + 1);
+		return RA + n;
+	}
+
+	private int freg(String r) {
+		if (!r.startsWith("f")) throw new Error("not a float register: " + r);
+		int n = number(r);
+		floatRegisters = Math.max(floatRegisters, n + 1);
+		return n;
+	}
+
+	private int number(String r) {
+		int n = Integer.parseInt(r.substring(1));
+		if (n < 1 || (registers > 0 && n > registers)) {
+			throw new Error("register " + r + " out of range (" + registers + " registers)");
+		}
+		return n;
+	}
+
+	private int imm(String s) {
+		return Long.decode(s).intValue(); //hex addresses can have the sign bit set
+	}
+
+	private int label(String l) {
+		Integer target = labels.get(l);
+		if (target == null) throw new Error("undefined label " + l);
+		return target;
+	}
+
+}
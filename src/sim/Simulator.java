@@ -0,0 +1,199 @@
+package sim;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+
+/**
+ * Runs the assembly the compiler produces, counting executed instructions
+ * and memory accesses. Meant for judging generated code in-process, without
+ * the external Python RiscSim.
+ *
+ * Usage: Simulator [options] file.asm
+ *
+ * <pre>
+ *   -r n              number of t and of f registers (default: no limit)
+ *   --max-steps n     give up after n instructions (default: no limit)
+ *   --latency n       extra cycles per load or store in the cycle count (default 2)
+ * </pre>
+ *
+ * The program's output goes to stdout and its input comes from stdin, one
+ * value per line. The counters are printed to stderr when it halts.
+ *
+ * Floats are single precision, like the .S instructions they model. MALLOC
+ * hands out memory from a bump allocator and FREE does nothing.
+ */
+public class Simulator {
+
+	static final int STACK_TOP = 0x7ffffff0;
+	static final int HEAP_BASE = 0x40000000;
+
+	public long maxSteps = 0;
+	public int latency = 2;
+
+	private long instructions;
+	private long loads;
+	private long stores;
+
+	public static void main(String args[]) throws IOException {
+		Simulator sim = new Simulator();
+		int registers = 0;
+		String file = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-r" : registers = Integer.parseInt(args[++i]); break;
+			case "--max-steps" : sim.maxSteps = Long.parseLong(args[++i]); break;
+			case "--latency" : sim.latency = Integer.parseInt(args[++i]); break;
+			default :
+				if (args[i].startsWith("-")) throw new Error("Unknown option " + args[i]);
+				file = args[i];
+			}
+		}
+		if (file == null) {
+			System.err.println("Usage: Simulator [-r registers] [--max-steps n] [--latency n] file.asm");
+			System.exit(1);
+		}
+
+		Program program = Program.load(Paths.get(file), registers);
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+		try {
+			sim.run(program, new BufferedReader(new InputStreamReader(System.in)), out);
+		} finally {
+			out.flush();
+			System.err.println(sim.counters());
+		}
+	}
+
+	/**
+	 * Run <code>program</code> from its first instruction until HALT.
+	 * The counters accumulate over calls.
+	 */
+	public void run(Program program, BufferedReader in, PrintStream out) throws IOException {
+		final int[] op = program.op;
+		final int[] a = program.a;
+		final int[] b = program.b;
+		final int[] c = program.c;
+		final int[] x = new int[program.intRegisters];
+		final float[] f = new float[program.floatRegisters];
+		final Memory mem = new Memory();
+
+		int heap = HEAP_BASE;
+		long steps = 0;
+		long loads = 0;
+		long stores = 0;
+		x[Program.SP] = STACK_TOP;
+
+		int pc = 0;
+		try {
+			run: while (true) {
+				if (pc < 0 || pc >= program.size) throw new Error("pc out of range: " + pc);
+				if (maxSteps > 0 && steps >= maxSteps) throw new Error("gave up after " + steps + " instructions");
+				steps++;
+				final int i = pc++;
+				switch (op[i]) {
+				case Program.LI :
+				case Program.LA : x[a[i]] = b[i]; break;
+				case Program.ADD : x[a[i]] = x[b[i]] + x[c[i]]; break;
+				case Program.SUB : x[a[i]] = x[b[i]] - x[c[i]]; break;
+				case Program.MUL : x[a[i]] = x[b[i]] * x[c[i]]; break;
+				case Program.DIV :
+					if (x[c[i]] == 0) throw new Error("division by zero");
+					x[a[i]] = x[b[i]] / x[c[i]];
+					break;
+				case Program.ADDI : x[a[i]] = x[b[i]] + c[i]; break;
+				case Program.NEG : x[a[i]] = -x[b[i]]; break;
+				case Program.MV : x[a[i]] = x[b[i]]; break;
+				case Program.LW : x[a[i]] = mem.load(x[b[i]] + c[i]); loads++; break;
+				case Program.SW : mem.store(x[b[i]] + c[i], x[a[i]]); stores++; break;
+				case Program.FLW : f[a[i]] = Float.intBitsToFloat(mem.load(x[b[i]] + c[i])); loads++; break;
+				case Program.FSW : mem.store(x[b[i]] + c[i], Float.floatToRawIntBits(f[a[i]])); stores++; break;
+				case Program.FADD : f[a[i]] = f[b[i]] + f[c[i]]; break;
+				case Program.FSUB : f[a[i]] = f[b[i]] - f[c[i]]; break;
+				case Program.FMUL : f[a[i]] = f[b[i]] * f[c[i]]; break;
+				case Program.FDIV : f[a[i]] = f[b[i]] / f[c[i]]; break;
+				case Program.FNEG : f[a[i]] = -f[b[i]]; break;
+				case Program.FMV : f[a[i]] = f[b[i]]; break;
+				case Program.FIMM : f[a[i]] = Float.intBitsToFloat(c[i]); break;
+				case Program.FLT : x[a[i]] = (f[b[i]] < f[c[i]]) ? 1 : 0; break;
+				case Program.FLE : x[a[i]] = (f[b[i]] <= f[c[i]]) ? 1 : 0; break;
+				case Program.FEQ : x[a[i]] = (f[b[i]] == f[c[i]]) ? 1 : 0; break;
+				case Program.IMOVF : f[a[i]] = x[b[i]]; break;
+				case Program.FMOVI : x[a[i]] = (int) f[b[i]]; break;
+				case Program.BEQ : if (x[a[i]] == x[b[i]]) pc = c[i]; break;
+				case Program.BNE : if (x[a[i]] != x[b[i]]) pc = c[i]; break;
+				case Program.BLT : if (x[a[i]] < x[b[i]]) pc = c[i]; break;
+				case Program.BLE : if (x[a[i]] <= x[b[i]]) pc = c[i]; break;
+				case Program.BGT : if (x[a[i]] > x[b[i]]) pc = c[i]; break;
+				case Program.BGE : if (x[a[i]] >= x[b[i]]) pc = c[i]; break;
+				case Program.J : pc = c[i]; break;
+				case Program.JR : x[Program.RA] = pc; pc = c[i]; break;
+				case Program.RET : pc = x[Program.RA]; break;
+				case Program.PUTI : out.println(x[a[i]]); break;
+				case Program.PUTF : out.println(f[a[i]]); break;
+				case Program.PUTS :
+					String s = program.strings.get(x[a[i]]);
+					if (s == null) throw new Error(String.format("no string at 0x%x", x[a[i]]));
+					out.println(s);
+					break;
+				case Program.GETI : x[a[i]] = Integer.parseInt(input(in)); break;
+				case Program.GETF : f[a[i]] = Float.parseFloat(input(in)); break;
+				case Program.MALLOC :
+					x[a[i]] = heap;
+					heap += (x[b[i]] + 3) & ~3;
+					break;
+				case Program.FREE : break;
+				case Program.HALT : break run;
+				default : throw new Error("bad opcode " + op[i]);
+				}
+				x[Program.X0] = 0;
+			}
+		} finally {
+			this.instructions += steps;
+			this.loads += loads;
+			this.stores += stores;
+		}
+	}
+
+	private static String input(BufferedReader in) throws IOException {
+		String line;
+		do {
+			line = in.readLine();
+			if (line == null) throw new Error("out of input");
+			line = line.trim();
+		} while (line.isEmpty());
+		return line;
+	}
+
+	public long getInstructions() {
+		return instructions;
+	}
+
+	public long getLoads() {
+		return loads;
+	}
+
+	public long getStores() {
+		return stores;
+	}
+
+	public long getMemoryAccesses() {
+		return loads + stores;
+	}
+
+	/**
+	 * A crude cycle count: one cycle per instruction, plus
+	 * <code>latency</code> for every load and store.
+	 */
+	public long getCycles() {
+		return instructions + latency * getMemoryAccesses();
+	}
+
+	public String counters() {
+		return "instructions: " + instructions + ", loads: " + loads + ", stores: " + stores
+				+ ", memory accesses: " + getMemoryAccesses() + ", cycles: " + getCycles();
+	}
+
+}
@@ -0,0 +1,51 @@
+package check;
+
+import java.util.Arrays;
+
+/**
+ * Runs the compiler's checks.
+ *
+ * Usage: check name [options] [test.uC ...]
+ *
+ * <pre>
+ *   lexer             the HandLexer gives the tokens and errors of the ANTLR lexer
+ *   parser            the RecursiveDescentParser gives the output of the ANTLR parser
+ *   compact           --compact-ast changes no output and saves memory
+ *   opt               -O does not change what programs do
+ *   perf              dynamic counts of the tests against tests/perf-baseline.txt
+ *   parse             parse time is linear in the length of a function
+ *   heap              --stream compiles a 500 MB source under a small heap cap
+ *   all               lexer, parser, compact, opt and perf, with the shared options given
+ * </pre>
+ *
+ * See each check for its options. The ones that run on {@link Inputs} all
+ * take the test files to use and --seeds n and --rd-parser. Exits with 1
+ * if a check fails.
+ */
+public class Checks {
+
+	public static void main(String args[]) throws Exception {
+		if (args.length == 0) throw new Error("Usage: check name [options] [test.uC ...]");
+		String[] rest = Arrays.copyOfRange(args, 1, args.length);
+		boolean passed;
+		switch (args[0]) {
+		case "lexer" : passed = LexerCheck.run(rest); break;
+		case "parser" : passed = ParserCheck.run(rest); break;
+		case "compact" : passed = CompactCheck.run(rest); break;
+		case "opt" : passed = OptCheck.run(rest); break;
+		case "perf" : passed = PerfSuite.run(rest); break;
+		case "parse" : passed = ParseScaling.run(rest); break;
+		case "heap" : passed = HeapCheck.run(rest); break;
+		case "all" :
+			passed = LexerCheck.run(rest);
+			passed &= ParserCheck.run(rest);
+			passed &= CompactCheck.run(rest);
+			passed &= OptCheck.run(rest);
+			passed &= PerfSuite.run(rest);
+			break;
+		default : throw new Error("Unknown check " + args[0]);
+		}
+		System.exit(passed ? 0 : 1);
+	}
+
+}
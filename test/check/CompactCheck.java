@@ -0,0 +1,138 @@
+package check;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import ast.CompactFunction;
+import ast.FunctionListNode;
+import ast.FunctionNode;
+import compiler.CompilationContext;
+import compiler.HandLexer;
+import compiler.Options;
+import compiler.ProgramGenerator;
+import compiler.RecursiveDescentParser;
+
+/**
+ * Checks of the compact AST (--compact-ast): that it changes nothing the
+ * compiler writes, and that it takes a fraction of the memory of the node
+ * objects.
+ *
+ * Usage: check compact [options] [test.uC ...]
+ *
+ * <pre>
+ *   --seeds n         also check n generated programs (default 50)
+ *   --functions n     functions in the program whose AST is measured (default 1000)
+ *   --min-ratio r     fail if the nodes take less than r times the memory of the compact form (default 3)
+ * </pre>
+ *
+ * Compiles the {@link Inputs} with and without --compact-ast and compares
+ * everything the compiler writes, then parses one large generated program
+ * and measures the heap its AST takes in each form. Fails if any output
+ * differs, if either form fails to compile an input that is not a known
+ * failure, or if the compact form saves too little. --compact-ast needs
+ * the RecursiveDescentParser, so both compiles use it, with or without
+ * --rd-parser.
+ */
+class CompactCheck {
+
+	static boolean run(String args[]) throws IOException {
+		int functions = 1000;
+		double minRatio = 3;
+		Inputs inputs = new Inputs(args);
+		for (String option; (option = inputs.next()) != null; ) {
+			switch (option) {
+			case "--functions" : functions = Integer.parseInt(inputs.value()); break;
+			case "--min-ratio" : minRatio = Double.parseDouble(inputs.value()); break;
+			default : throw Inputs.unknown(option);
+			}
+		}
+
+		int count = 0;
+		int failed = 0;
+		for (Inputs.Input in : inputs.all()) {
+			count++;
+			if (!check(in, inputs)) failed++;
+		}
+		System.out.println(String.format("%d inputs, %d differ", count, failed));
+
+		ProgramGenerator g = new ProgramGenerator();
+		g.functions = functions;
+		double ratio = measure(g.generate());
+		boolean small = ratio >= minRatio;
+		System.out.println(String.format("nodes take %.2fx the memory of the compact form (need %.2fx): %s",
+				ratio, minRatio, small ? "ok" : "FAIL"));
+		return failed == 0 && small;
+	}
+
+	/**
+	 * Compile <code>in</code> with and without the compact AST and compare
+	 * the output.
+	 *
+	 * @return true if they agree
+	 */
+	private static boolean check(Inputs.Input in, Inputs inputs) throws IOException {
+		Options options = inputs.options();
+		options.rdParser = true;
+		Inputs.Compiled expected = Inputs.compile(in.open(), options);
+		options = inputs.options();
+		options.rdParser = true;
+		options.compactAst = true;
+		Inputs.Compiled actual = Inputs.compile(in.open(), options);
+		if (!Inputs.bothCompiled(in, "nodes", expected, "compact", actual)) return false;
+		return expected.error != null || Inputs.same(in.name, "nodes", expected.output, "compact", actual.output);
+	}
+
+	/**
+	 * Parse <code>source</code> and measure the heap its AST takes as nodes
+	 * and in compact form. The symbol table, which both forms point into, is
+	 * kept alive throughout and not counted.
+	 *
+	 * @return how many times more memory the nodes take
+	 */
+	static double measure(String source) {
+		CompilationContext ctx = new CompilationContext(new PrintStream(OutputStream.nullOutputStream()), new Options());
+		FunctionListNode ast = new RecursiveDescentParser(HandLexer.of(CharStreams.fromString(source)), ctx).program();
+		source = null;
+
+		long withNodes = usedHeap();
+		List<CompactFunction> compact = compact(ast);
+		ast = null;
+		long withCompact = usedHeap();
+		Reference.reachabilityFence(compact);
+		compact = null;
+		long neither = usedHeap();
+		Reference.reachabilityFence(ctx);
+
+		long nodeBytes = withNodes - neither;
+		long compactBytes = withCompact - neither;
+		System.out.println(String.format("%d bytes as nodes, %d bytes compact", nodeBytes, compactBytes));
+		return (double) nodeBytes / compactBytes;
+	}
+
+	/**
+	 * A method of its own so that nothing in {@link #measure} is left
+	 * pointing at the nodes once they are packed.
+	 */
+	private static List<CompactFunction> compact(FunctionListNode ast) {
+		List<CompactFunction> compact = new ArrayList<CompactFunction>();
+		for (FunctionNode f : ast.getFunctions()) {
+			compact.add(CompactFunction.of(f));
+		}
+		return compact;
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+}
@@ -0,0 +1,69 @@
+package check;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import compiler.ProgramGenerator;
+
+/**
+ * Checks that --stream compiles a very large source in memory bounded by
+ * its largest function rather than its size.
+ *
+ * Usage: check heap [options]
+ *
+ * <pre>
+ *   --heap size       heap cap of the compiler, as for -Xmx (default 64m)
+ *   --functions n     functions in the generated source (default 3600)
+ *   --statements n    statements per function (default 5000)
+ * </pre>
+ *
+ * The defaults give a source of about 500 MB. It is written to a temporary
+ * directory and compiled by a separate JVM under the heap cap, with the
+ * assembly (many GB) going to /dev/null. Fails if that compile does not
+ * succeed.
+ */
+class HeapCheck {
+
+	static boolean run(String args[]) throws IOException, InterruptedException {
+		String heap = "64m";
+		ProgramGenerator g = new ProgramGenerator();
+		g.functions = 3600;
+		g.statements = 5000;
+		Inputs inputs = new Inputs(args);
+		for (String option; (option = inputs.next()) != null; ) {
+			switch (option) {
+			case "--heap" : heap = inputs.value(); break;
+			case "--functions" : g.functions = Integer.parseInt(inputs.value()); break;
+			case "--statements" : g.statements = Integer.parseInt(inputs.value()); break;
+			default : throw Inputs.unknown(option);
+			}
+		}
+
+		Path dir = Files.createTempDirectory("heapcheck");
+		Path source = dir.resolve("big.uC");
+		try {
+			try (PrintStream out = new PrintStream(new BufferedOutputStream(Files.newOutputStream(source), 1 << 16))) {
+				g.generate(out);
+			}
+			System.out.println(String.format("source: %d MB", Files.size(source) >> 20));
+
+			String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+			Process compile = new ProcessBuilder(java, "-Xmx" + heap, "-cp", System.getProperty("java.class.path"),
+					"compiler.Compiler", "--stream", "-o", "/dev/null", source.toString())
+					.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start();
+			boolean passed = compile.waitFor() == 0;
+			System.out.println("compiled with -Xmx" + heap + ": " + (passed ? "PASS" : "FAIL"));
+			return passed;
+		} finally {
+			Files.deleteIfExists(source);
+			Files.delete(dir);
+		}
+	}
+
+}
@@ -0,0 +1,288 @@
+package check;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+
+import compiler.CompilationContext;
+import compiler.Compiler;
+import compiler.Options;
+import compiler.ProgramGenerator;
+import sim.Program;
+import sim.Simulator;
+
+/**
+ * The command line and the inputs shared by the checks.
+ *
+ * The inputs are the tests named on the command line, or every
+ * tests/*&#47;*.uC if none are, followed by one generated program for each
+ * seed from 1 to --seeds, each with a different mix of
+ * {@link ProgramGenerator} knobs. A test that {@link #BASELINE} records as
+ * not compiling or running is a known failure; any other input that fails
+ * to compile, generated ones above all, is a failure of the check.
+ *
+ * A check reads its own options with {@link #next}; file names, --seeds n
+ * and --rd-parser are handled here.
+ */
+final class Inputs {
+
+	/** What every simulated program reads */
+	static final String INPUT = "7\n3\n5\n2\n";
+	static final long MAX_STEPS = 100000000L;
+	static final Path BASELINE = Paths.get("tests", "perf-baseline.txt");
+
+	/** One program to check */
+	static final class Input {
+		final String name;
+		final boolean generated;
+		final boolean knownFailure;
+		private final String file;
+		private final long seed;
+
+		private Input(String name, boolean generated, boolean knownFailure, String file, long seed) {
+			this.name = name;
+			this.generated = generated;
+			this.knownFailure = knownFailure;
+			this.file = file;
+			this.seed = seed;
+		}
+
+		/**
+		 * The source, read or generated anew on every call.
+		 */
+		CharStream open() throws IOException {
+			if (file != null) return CharStreams.fromFileName(file);
+			return CharStreams.fromString(generator(seed).generate());
+		}
+	}
+
+	/** What compiling a program gave: everything written to out, or what it threw */
+	static final class Compiled {
+		final String output;
+		final Throwable error;
+
+		private Compiled(String output, Throwable error) {
+			this.output = output;
+			this.error = error;
+		}
+	}
+
+	/** What a program wrote when simulated on {@link #INPUT}, and how much it did */
+	static final class Simulated {
+		final String output;
+		final long instructions;
+		final long memoryAccesses;
+
+		private Simulated(String output, long instructions, long memoryAccesses) {
+			this.output = output;
+			this.instructions = instructions;
+			this.memoryAccesses = memoryAccesses;
+		}
+	}
+
+	int seeds = 50;
+	boolean rdParser = false;
+	final List<String> files = new ArrayList<String>();
+
+	private final String[] args;
+	private int i = -1;
+
+	Inputs(String[] args) {
+		this.args = args;
+	}
+
+	/**
+	 * The next option that is not one of the shared ones, or null once they
+	 * are all read.
+	 */
+	String next() {
+		while (++i < args.length) {
+			switch (args[i]) {
+			case "--seeds" : seeds = Integer.parseInt(value()); break;
+			case "--rd-parser" : rdParser = true; break;
+			default :
+				if (args[i].startsWith("-")) return args[i];
+				files.add(args[i]);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The value of the option just returned by {@link #next}.
+	 */
+	String value() {
+		if (i + 1 >= args.length) throw new Error("Missing value for " + args[i]);
+		return args[++i];
+	}
+
+	static Error unknown(String option) {
+		return new Error("Unknown option " + option);
+	}
+
+	/**
+	 * Options for a compile, with the front end picked on the command line.
+	 */
+	Options options() {
+		Options options = new Options();
+		options.rdParser = rdParser;
+		return options;
+	}
+
+	/**
+	 * The tests named on the command line, or every tests/*&#47;*.uC.
+	 */
+	List<String> tests() throws IOException {
+		if (!files.isEmpty()) return files;
+		try (Stream<Path> found = Files.walk(Paths.get("tests"))) {
+			return found.map(Path::toString).filter(f -> f.endsWith(".uC")).sorted().collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * The tests, then the generated programs.
+	 */
+	List<Input> all() throws IOException {
+		Set<String> known = knownFailures();
+		List<Input> inputs = new ArrayList<Input>();
+		for (String test : tests()) {
+			inputs.add(new Input(test, false, known.contains(test), test, 0));
+		}
+		for (int s = 1; s <= seeds; s++) {
+			inputs.add(new Input("generated seed " + s, true, false, null, s));
+		}
+		return inputs;
+	}
+
+	/**
+	 * The generator for one seed, with knobs that vary with the seed.
+	 */
+	static ProgramGenerator generator(long seed) {
+		ProgramGenerator g = new ProgramGenerator();
+		g.seed = seed;
+		g.functions = 1 + (int) (seed % 7);
+		g.nesting = (int) (seed % 4);
+		g.pointers = (seed % 3) * 0.3;
+		g.floats = (seed % 4) * 0.3;
+		return g;
+	}
+
+	/**
+	 * The tests the baseline records as not compiling or running.
+	 */
+	static Set<String> knownFailures() throws IOException {
+		Set<String> known = new HashSet<String>();
+		if (!Files.exists(BASELINE)) return known;
+		for (String line : Files.readAllLines(BASELINE)) {
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length == 3 && !fields[0].startsWith("#") && fields[1].equals("-")) known.add(fields[0]);
+		}
+		return known;
+	}
+
+	/**
+	 * Compile <code>input</code> in-process. What the compiler writes to
+	 * System.err, which differs between the front ends for syntax errors, is
+	 * dropped.
+	 */
+	static Compiled compile(CharStream input, Options options) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+		Throwable[] error = new Throwable[1];
+		stderrOf(() -> {
+			try {
+				Compiler.compile(input, new CompilationContext(out, options));
+			} catch (RuntimeException | Error e) {
+				error[0] = e;
+			}
+			return null;
+		});
+		out.flush();
+		return new Compiled((error[0] == null) ? bytes.toString() : null, error[0]);
+	}
+
+	/**
+	 * Assemble and simulate the output of a compile.
+	 */
+	static Simulated simulate(String asm) throws IOException {
+		Program program = Program.load(new BufferedReader(new StringReader(asm)), 0);
+		Simulator sim = new Simulator();
+		sim.maxSteps = MAX_STEPS;
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		PrintStream w = new PrintStream(written);
+		sim.run(program, new BufferedReader(new StringReader(INPUT)), w);
+		w.flush();
+		return new Simulated(written.toString(), sim.getInstructions(), sim.getMemoryAccesses());
+	}
+
+	/**
+	 * Run <code>action</code> and return what it wrote to System.err
+	 * instead of letting it through.
+	 */
+	static String stderrOf(Supplier<?> action) {
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		PrintStream err = System.err;
+		System.setErr(new PrintStream(errors, true));
+		try {
+			action.get();
+		} finally {
+			System.setErr(err);
+		}
+		return errors.toString();
+	}
+
+	/**
+	 * Report whether two compiles of <code>in</code> both succeeded. A known
+	 * failure that fails both times is reported and let through.
+	 *
+	 * @return true if both compiled, or if the input is a known failure and
+	 *         neither did; the outputs are compared only in the first case
+	 */
+	static boolean bothCompiled(Input in, String expectedLabel, Compiled expected, String actualLabel, Compiled actual) {
+		if (expected.error == null && actual.error == null) return true;
+		if (in.knownFailure && expected.error != null && actual.error != null) {
+			System.out.println(in.name + ": known failure");
+			return true;
+		}
+		if (expected.error != null) System.out.println(in.name + ": " + expectedLabel + " failed: " + expected.error);
+		if (actual.error != null) System.out.println(in.name + ": " + actualLabel + " failed: " + actual.error);
+		return false;
+	}
+
+	/**
+	 * Compare two outputs line by line, printing the first line that differs.
+	 *
+	 * @return true if they are the same
+	 */
+	static boolean same(String name, String expectedLabel, String expected, String actualLabel, String actual) {
+		if (expected.equals(actual)) return true;
+
+		String[] e = expected.split("\n", -1);
+		String[] a = actual.split("\n", -1);
+		int line = 0;
+		while (line < e.length && line < a.length && e[line].equals(a[line])) {
+			line++;
+		}
+		int width = Math.max(expectedLabel.length(), actualLabel.length()) + 1;
+		System.out.println(name + ": output differs at line " + (line + 1));
+		System.out.println(String.format("  %-" + width + "s %s", expectedLabel + ":", (line < e.length) ? e[line] : "(end)"));
+		System.out.println(String.format("  %-" + width + "s %s", actualLabel + ":", (line < a.length) ? a[line] : "(end)"));
+		return false;
+	}
+
+}
@@ -0,0 +1,105 @@
+package check;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+
+import compiler.HandLexer;
+import compiler.MicroCLexer;
+
+/**
+ * Differential test of {@link HandLexer} against the generated
+ * {@link MicroCLexer}.
+ *
+ * Usage: check lexer [options] [test.uC ...]
+ *
+ * <pre>
+ *   --seeds n         also check n generated programs (default 50)
+ * </pre>
+ *
+ * Lexes the {@link Inputs} and a set of malformed snippets with both
+ * lexers. Every token must agree in type, text, character indices, line
+ * and column, and both lexers must report the same errors. Prints the
+ * first difference for each input that disagrees and fails if any did.
+ */
+class LexerCheck {
+
+	/** Inputs at the edges of the token rules, including ones the lexer must reject */
+	static final String[] SNIPPETS = {
+		"", " ", "\n\n", "x", "_", "_a1_", "int intx int_ if0 iff whiles",
+		"0", "007", "1.5", ".5", "1.", "1..2", "1.2.3", ". ", ".", "12.x",
+		"< <= > >= = == != !", "!x", "a!=b", "<<==>>=",
+		"\"\"", "\"abc\" \"a b\n c\"", "\"unterminated",
+		"/**/", "/* a */b", "/* a * / b */c", "/*/ x */", "/* never closed", "a/b", "/",
+		"#", "a # b", "@@", "$x", "\t\r\n#\n  ~",
+		"x = y[3] + *p - &q[i * 2] / (float) z;",
+		"int main() { print(\"hi\"); return 0; }",
+	};
+
+	static boolean run(String args[]) throws IOException {
+		Inputs inputs = new Inputs(args);
+		String option = inputs.next();
+		if (option != null) throw Inputs.unknown(option);
+
+		int count = 0;
+		int failed = 0;
+		for (Inputs.Input in : inputs.all()) {
+			count++;
+			if (!check(in.name, in.open())) failed++;
+		}
+		for (String snippet : SNIPPETS) {
+			count++;
+			if (!check("snippet " + quote(snippet), CharStreams.fromString(snippet))) failed++;
+		}
+
+		System.out.println(String.format("%d inputs, %d differ", count, failed));
+		return failed == 0;
+	}
+
+	/**
+	 * Lex <code>input</code> with both lexers and compare the results.
+	 *
+	 * @return true if they agree
+	 */
+	static boolean check(String name, CharStream input) {
+		List<String> expected = lex(new MicroCLexer(input));
+		input.seek(0);
+		HandLexer hand = HandLexer.of(input);
+		if (hand == null) {
+			System.out.println(name + ": skipped, not lexable by HandLexer");
+			return true;
+		}
+		List<String> actual = lex(hand);
+		return Inputs.same(name, "MicroCLexer", String.join("\n", expected), "HandLexer", String.join("\n", actual));
+	}
+
+	/**
+	 * Every token up to EOF, one line each, followed by the errors the lexer printed.
+	 */
+	private static List<String> lex(TokenSource lexer) {
+		List<String> items = new ArrayList<String>();
+		String errors = Inputs.stderrOf(() -> {
+			Token t;
+			do {
+				t = lexer.nextToken();
+				items.add(String.format("type %d text %s chars %d-%d at %d:%d", t.getType(), quote(t.getText()),
+						t.getStartIndex(), t.getStopIndex(), t.getLine(), t.getCharPositionInLine()));
+			} while (t.getType() != Token.EOF);
+			return null;
+		});
+		for (String line : errors.split("\n")) {
+			if (!line.isEmpty()) items.add("error " + line);
+		}
+		return items;
+	}
+
+	private static String quote(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\n", "\\n").replace("\t", "\\t").replace("\r", "\\r") + "\"";
+	}
+
+}
@@ -0,0 +1,112 @@
+package check;
+
+import java.io.IOException;
+
+import compiler.Options;
+
+/**
+ * Checks that optimizing (-O) does not change what programs do.
+ *
+ * Usage: check opt [options] [test.uC ...]
+ *
+ * <pre>
+ *   -O level          optimization level to check against -O 0 (default 1)
+ *   --seeds n         also check n generated programs (default 50)
+ *   --rd-parser       compile with the RecursiveDescentParser
+ * </pre>
+ *
+ * Compiles the {@link Inputs} with and without optimization, simulates
+ * both and compares what they write. Prints the total dynamic instruction
+ * and memory access counts at each level. Fails if any program writes
+ * something different when optimized, stops compiling or running, or
+ * fails already at -O 0 without being a known failure. Generated programs
+ * always compile, so one that fails at -O 0 is a failure of the generator
+ * or the compiler.
+ */
+class OptCheck {
+
+	private int level = 1;
+	private long[] totals = new long[4];
+	private int failedAtZero = 0;
+
+	static boolean run(String args[]) throws IOException {
+		OptCheck check = new OptCheck();
+		Inputs inputs = new Inputs(args);
+		for (String option; (option = inputs.next()) != null; ) {
+			switch (option) {
+			case "-O" : check.level = Integer.parseInt(inputs.value()); break;
+			default : throw Inputs.unknown(option);
+			}
+		}
+
+		int count = 0;
+		int differ = 0;
+		for (Inputs.Input in : inputs.all()) {
+			count++;
+			if (!check.check(in, inputs)) differ++;
+		}
+		long[] totals = check.totals;
+		System.out.println(String.format("-O 0: %d instructions, %d memory accesses", totals[0], totals[1]));
+		System.out.println(String.format("-O %d: %d instructions, %d memory accesses", check.level, totals[2], totals[3]));
+		System.out.println(String.format("%d inputs, %d differ, %d fail at -O 0", count, differ - check.failedAtZero, check.failedAtZero));
+		return differ == 0;
+	}
+
+	/**
+	 * Compile and run <code>in</code> at -O 0 and at the level being
+	 * checked, and compare what they write. The counts of both runs are
+	 * added to the totals if both succeed.
+	 *
+	 * @return true if they agree, or if <code>in</code> is a known failure
+	 *         and fails at -O 0
+	 */
+	private boolean check(Inputs.Input in, Inputs inputs) throws IOException {
+		Run expected = run(in, 0, inputs);
+		if (expected.error != null) {
+			if (in.knownFailure) {
+				System.out.println(in.name + ": known failure");
+				return true;
+			}
+			System.out.println(in.name + ": fails at -O 0: " + expected.error);
+			failedAtZero++;
+			return false;
+		}
+		Run actual = run(in, level, inputs);
+		if (actual.error != null) {
+			System.out.println(in.name + ": fails at -O " + level + ": " + actual.error);
+			return false;
+		}
+		if (!expected.run.output.equals(actual.run.output)) {
+			System.out.println(in.name + ": output differs at -O " + level);
+			System.out.println("  -O 0: " + expected.run.output.replace("\n", " "));
+			System.out.println("  -O " + level + ": " + actual.run.output.replace("\n", " "));
+			return false;
+		}
+		totals[0] += expected.run.instructions;
+		totals[1] += expected.run.memoryAccesses;
+		totals[2] += actual.run.instructions;
+		totals[3] += actual.run.memoryAccesses;
+		return true;
+	}
+
+	private static class Run {
+		Inputs.Simulated run;
+		Throwable error;
+	}
+
+	private static Run run(Inputs.Input in, int level, Inputs inputs) throws IOException {
+		Options options = inputs.options();
+		options.optLevel = level;
+		Run run = new Run();
+		Inputs.Compiled compiled = Inputs.compile(in.open(), options);
+		run.error = compiled.error;
+		if (run.error != null) return run;
+		try {
+			run.run = Inputs.simulate(compiled.output);
+		} catch (IOException | RuntimeException | Error e) {
+			run.error = e;
+		}
+		return run;
+	}
+
+}
@@ -0,0 +1,102 @@
+package check;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+
+import ast.FunctionListNode;
+import compiler.CompilationContext;
+import compiler.Compiler;
+import compiler.MicroCLexer;
+import compiler.Options;
+import compiler.ProgramGenerator;
+
+/**
+ * Checks that parsing a long function takes time linear in its length and
+ * does not run out of Java stack.
+ *
+ * Usage: check parse [options]
+ *
+ * <pre>
+ *   --max n           statements in the largest function (default 200000)
+ *   --steps n         number of sizes, each half the next (default 4)
+ *   --tolerance x     allowed growth of the time per statement from the smallest to the largest size (default 2)
+ * </pre>
+ *
+ * Each size is a {@link ProgramGenerator} program with one function of that
+ * many statements besides main. It is lexed once and parsed a few times,
+ * keeping the fastest. Prints the time per statement for every size and
+ * fails if the parse overflowed the stack or the time per statement grew
+ * by more than the tolerance.
+ */
+class ParseScaling {
+
+	static final int RUNS = 3;
+
+	static boolean run(String args[]) {
+		int max = 200000;
+		int steps = 4;
+		double tolerance = 2;
+		Inputs inputs = new Inputs(args);
+		for (String option; (option = inputs.next()) != null; ) {
+			switch (option) {
+			case "--max" : max = Integer.parseInt(inputs.value()); break;
+			case "--steps" : steps = Integer.parseInt(inputs.value()); break;
+			case "--tolerance" : tolerance = Double.parseDouble(inputs.value()); break;
+			default : throw Inputs.unknown(option);
+			}
+		}
+
+		System.out.println(String.format("%12s %12s %12s", "Statements", "Parse ms", "ns/stmt"));
+		double first = 0;
+		double last = 0;
+		for (int s = steps - 1; s >= 0; s--) {
+			int statements = max >> s;
+			double perStatement;
+			try {
+				perStatement = (double) measure(statements) / statements;
+			} catch (StackOverflowError e) {
+				System.out.println(String.format("%12d  FAIL (StackOverflowError)", statements));
+				return false;
+			}
+			System.out.println(String.format("%12d %12.1f %12.1f", statements, perStatement * statements / 1e6, perStatement));
+			if (s == steps - 1) first = perStatement;
+			last = perStatement;
+		}
+
+		boolean linear = last <= first * tolerance;
+		System.out.println(String.format("time per statement grew %.2fx (allowed %.2fx): %s", last / first, tolerance, linear ? "ok" : "FAIL"));
+		return linear;
+	}
+
+	/**
+	 * Parse a program with a function of <code>statements</code> statements.
+	 *
+	 * @return the fastest of {@link #RUNS} parses, in nanoseconds
+	 */
+	static long measure(int statements) {
+		ProgramGenerator g = new ProgramGenerator();
+		g.functions = 1;
+		g.statements = statements;
+		List<? extends Token> tokens = new MicroCLexer(CharStreams.fromString(g.generate())).getAllTokens();
+		PrintStream nullOut = new PrintStream(OutputStream.nullOutputStream());
+
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < RUNS; r++) {
+			long start = System.nanoTime();
+			FunctionListNode ast = (FunctionListNode) Compiler.parse(new CommonTokenStream(new ListTokenSource(tokens)),
+					new CompilationContext(nullOut, new Options()));
+			best = Math.min(best, System.nanoTime() - start);
+
+			int top = ast.getFunctions().get(0).getFuncBody().getStatements().size();
+			if (top == 0) throw new Error("parsed no statements for " + statements);
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,53 @@
+package check;
+
+import java.io.IOException;
+
+import compiler.Options;
+
+/**
+ * Differential test of {@link compiler.RecursiveDescentParser} against the
+ * ANTLR parser.
+ *
+ * Usage: check parser [options] [test.uC ...]
+ *
+ * <pre>
+ *   --seeds n         also check n generated programs (default 50)
+ * </pre>
+ *
+ * Compiles the {@link Inputs} twice, once with each front end, and compares
+ * everything the compiler writes: diagnostics, the symbol table and the
+ * assembly. Fails if any output differs, or if either front end fails to
+ * compile an input that is not a known failure.
+ */
+class ParserCheck {
+
+	static boolean run(String args[]) throws IOException {
+		Inputs inputs = new Inputs(args);
+		String option = inputs.next();
+		if (option != null) throw Inputs.unknown(option);
+
+		int count = 0;
+		int failed = 0;
+		for (Inputs.Input in : inputs.all()) {
+			count++;
+			if (!check(in)) failed++;
+		}
+		System.out.println(String.format("%d inputs, %d differ", count, failed));
+		return failed == 0;
+	}
+
+	/**
+	 * Compile <code>in</code> with both front ends and compare the output.
+	 *
+	 * @return true if they agree
+	 */
+	private static boolean check(Inputs.Input in) throws IOException {
+		Inputs.Compiled expected = Inputs.compile(in.open(), new Options());
+		Options options = new Options();
+		options.rdParser = true;
+		Inputs.Compiled actual = Inputs.compile(in.open(), options);
+		if (!Inputs.bothCompiled(in, "ANTLR", expected, "RecursiveDescentParser", actual)) return false;
+		return expected.error != null || Inputs.same(in.name, "ANTLR", expected.output, "RecursiveDescentParser", actual.output);
+	}
+
+}
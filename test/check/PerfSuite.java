@@ -0,0 +1,165 @@
+package check;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import compiler.Options;
+
+/**
+ * Performance regression suite for the generated code.
+ *
+ * Usage: check perf [options] [test.uC ...]
+ *
+ * <pre>
+ *   --baseline file   baseline to compare against (default tests/perf-baseline.txt)
+ *   --threshold pct   allowed growth of either count before a test fails (default 1)
+ *   --update          write the current counts to the baseline instead of comparing
+ *   -O level          compile at this optimization level (default 0), e.g. to see what it saves
+ *   --rd-parser       compile with the RecursiveDescentParser
+ * </pre>
+ *
+ * Compiles each test (every tests/*&#47;*.uC by default) in-process,
+ * simulates it and compares the dynamic instruction count and memory
+ * access count against the baseline. Prints a table of both and fails if
+ * any test regressed by more than the threshold, or stopped compiling or
+ * running.
+ *
+ * Every test reads {@link Inputs#INPUT}, so tests that call read() are
+ * deterministic. A baseline entry of "-" records a test that is known not
+ * to compile or run; it is reported but does not fail the suite.
+ */
+class PerfSuite {
+
+	static boolean run(String args[]) throws IOException {
+		Path baselineFile = Inputs.BASELINE;
+		double threshold = 1;
+		boolean update = false;
+		int level = 0;
+		Inputs inputs = new Inputs(args);
+		for (String option; (option = inputs.next()) != null; ) {
+			switch (option) {
+			case "--baseline" : baselineFile = Paths.get(inputs.value()); break;
+			case "--threshold" : threshold = Double.parseDouble(inputs.value()); break;
+			case "--update" : update = true; break;
+			case "-O" : level = Integer.parseInt(inputs.value()); break;
+			default : throw Inputs.unknown(option);
+			}
+		}
+		Options options = inputs.options();
+		options.optLevel = level;
+		List<String> tests = inputs.tests();
+
+		Map<String, long[]> baseline = Files.exists(baselineFile) ? readBaseline(baselineFile) : new LinkedHashMap<String, long[]>();
+		Map<String, long[]> current = new LinkedHashMap<String, long[]>();
+		for (String test : tests) {
+			current.put(test, measure(test, options));
+		}
+
+		if (update) {
+			writeBaseline(baselineFile, current);
+			System.out.println("wrote " + current.size() + " entries to " + baselineFile);
+			return true;
+		}
+
+		System.out.println(String.format("%-28s %12s %12s %8s %12s %12s %8s  %s",
+				"Test", "Instrs", "Base", "Delta", "MemAccesses", "Base", "Delta", "Status"));
+		int failed = 0;
+		for (String test : tests) {
+			long[] now = current.get(test);
+			long[] base = baseline.get(test);
+			String status;
+			if (base == null) {
+				status = (now == null) ? "ERROR (no baseline)" : "NEW";
+			} else if (now == null) {
+				status = (base.length == 0) ? "known failure" : "FAIL (error)";
+			} else if (base.length == 0) {
+				status = "FIXED";
+			} else if (growth(now[0], base[0]) > threshold || growth(now[1], base[1]) > threshold) {
+				status = "FAIL";
+			} else {
+				status = "ok";
+			}
+			if (status.startsWith("FAIL")) failed++;
+
+			System.out.println(String.format("%-28s %12s %12s %8s %12s %12s %8s  %s", test,
+					count(now, 0), count(base, 0), delta(now, base, 0),
+					count(now, 1), count(base, 1), delta(now, base, 1), status));
+		}
+		System.out.println(String.format("%d tests, %d regressed beyond %.1f%%", tests.size(), failed, threshold));
+		return failed == 0;
+	}
+
+	/**
+	 * Compile and simulate one test.
+	 *
+	 * @return {instructions, memory accesses}, or null if it did not compile or run
+	 */
+	static long[] measure(String test, Options options) {
+		Throwable error;
+		try {
+			Inputs.Compiled compiled = Inputs.compile(CharStreams.fromFileName(test), options);
+			error = compiled.error;
+			if (error == null) {
+				Inputs.Simulated run = Inputs.simulate(compiled.output);
+				return new long[] {run.instructions, run.memoryAccesses};
+			}
+		} catch (IOException | RuntimeException | Error e) {
+			error = e;
+		}
+		System.err.println(test + ": " + error);
+		return null;
+	}
+
+	private static double growth(long now, long base) {
+		return (base == 0) ? ((now == 0) ? 0 : Double.POSITIVE_INFINITY) : 100.0 * (now - base) / base;
+	}
+
+	private static String count(long[] counts, int i) {
+		return (counts == null || counts.length == 0) ? "-" : String.valueOf(counts[i]);
+	}
+
+	private static String delta(long[] now, long[] base, int i) {
+		if (now == null || base == null || base.length == 0) return "";
+		return String.format("%+.1f%%", growth(now[i], base[i]));
+	}
+
+	/**
+	 * One line per test: <code>test instructions memory_accesses</code>, with
+	 * "-" for both counts of a known failure. Lines starting with # are comments.
+	 */
+	private static Map<String, long[]> readBaseline(Path file) throws IOException {
+		Map<String, long[]> baseline = new LinkedHashMap<String, long[]>();
+		for (String line : Files.readAllLines(file)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			String[] fields = line.split("\\s+");
+			if (fields.length != 3) throw new Error("bad baseline line: " + line);
+			if (fields[1].equals("-")) {
+				baseline.put(fields[0], new long[0]);
+			} else {
+				baseline.put(fields[0], new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+			}
+		}
+		return baseline;
+	}
+
+	private static void writeBaseline(Path file, Map<String, long[]> current) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		lines.add("# Dynamic counts of the generated code, checked by check.PerfSuite (./check perf).");
+		lines.add("# test instructions memory_accesses; \"-\" marks a test that does not compile or run.");
+		for (Map.Entry<String, long[]> e : current.entrySet()) {
+			long[] c = e.getValue();
+			lines.add(e.getKey() + " " + ((c == null) ? "- -" : c[0] + " " + c[1]));
+		}
+		Files.write(file, lines);
+	}
+
+}